@@ -13,7 +13,25 @@ package io.pravega.example.noop;
 import io.pravega.client.stream.Serializer;
 import java.nio.ByteBuffer;
 
+/**
+ * Passes the bytes of events through as they are. By default events are deserialized to a view of the buffer they
+ * were read into rather than a copy, which readers only guarantee until their callback returns; a copying serializer
+ * hands out buffers of their own that can be kept.
+ */
 public class BinarySerializer implements Serializer<ByteBuffer> {
+    private final boolean copy;
+
+    public BinarySerializer() {
+        this(false);
+    }
+
+    /**
+     * @param copy Whether to copy each event read into a buffer of its own.
+     */
+    public BinarySerializer(boolean copy) {
+        this.copy = copy;
+    }
+
     @Override
     public ByteBuffer serialize(ByteBuffer value) {
         return value;
@@ -21,6 +39,11 @@ public class BinarySerializer implements Serializer<ByteBuffer> {
 
     @Override
     public ByteBuffer deserialize(ByteBuffer serializedValue) {
-        return serializedValue;
+        if (!copy) {
+            return serializedValue;
+        }
+        ByteBuffer event = ByteBuffer.allocate(serializedValue.remaining());
+        event.put(serializedValue.duplicate()).flip();
+        return event;
     }
 }
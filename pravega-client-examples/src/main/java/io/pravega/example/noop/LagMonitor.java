@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.example.noop;
+
+import io.pravega.client.ClientFactory;
+import io.pravega.client.admin.ReaderGroupManager;
+import io.pravega.client.batch.BatchClient;
+import io.pravega.client.batch.SegmentRange;
+import io.pravega.client.stream.ReaderGroup;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.StreamCut;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures how far a reader group is behind the tail of its streams. Every {@link #update()} takes the stream cut
+ * the readers have reached and lists, through the batch client, the segments between it and the tail; the unread
+ * bytes of a segment are the distance between the readers' offset and the end of the segment. Segments the readers
+ * have not started on yet count in full.
+ *
+ * The latest readings are exported through JMX under {@code io.pravega.example:type=ReaderGroupLag}, so that they
+ * can be watched with the usual JMX tooling.
+ */
+public class LagMonitor implements LagMonitorMXBean, AutoCloseable {
+    private final String scope;
+    private final String readerGroupName;
+    private final ClientFactory clientFactory;
+    private final ReaderGroupManager readerGroupManager;
+    private final ReaderGroup readerGroup;
+    private final BatchClient batchClient;
+    private ObjectName objectName;
+
+    private volatile Map<String, Long> segmentUnreadBytes = Collections.emptyMap();
+    private volatile long unreadBytes;
+    private volatile long maxSegmentUnreadBytes;
+    private volatile long lastUpdateMillis;
+
+    public LagMonitor(String scope, String readerGroupName, URI controllerURI) {
+        this.scope = scope;
+        this.readerGroupName = readerGroupName;
+        this.clientFactory = ClientFactory.withScope(scope, controllerURI);
+        this.readerGroupManager = ReaderGroupManager.withScope(scope, controllerURI);
+        this.readerGroup = readerGroupManager.getReaderGroup(readerGroupName);
+        this.batchClient = clientFactory.createBatchClient();
+    }
+
+    /**
+     * Registers the monitor with the platform MBean server.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName("io.pravega.example:type=ReaderGroupLag,scope=" + ObjectName.quote(scope)
+                + ",name=" + ObjectName.quote(readerGroupName));
+        server.registerMBean(this, objectName);
+    }
+
+    /**
+     * Reads the current position of the reader group and the tail of its streams, and updates the readings.
+     */
+    public synchronized void update() {
+        Map<String, Long> segments = new LinkedHashMap<>();
+        long total = 0;
+        long max = 0;
+        for (Map.Entry<Stream, StreamCut> position : readerGroup.getStreamCuts().entrySet()) {
+            Iterator<SegmentRange> ranges = batchClient.getSegments(position.getKey(), position.getValue(),
+                    StreamCut.UNBOUNDED).getIterator();
+            while (ranges.hasNext()) {
+                SegmentRange range = ranges.next();
+                long unread = Math.max(0, range.getEndOffset() - range.getStartOffset());
+                segments.put(range.getScope() + "/" + range.getStreamName() + "/" + range.getSegmentId(), unread);
+                total += unread;
+                max = Math.max(max, unread);
+            }
+        }
+        segmentUnreadBytes = Collections.unmodifiableMap(segments);
+        unreadBytes = total;
+        maxSegmentUnreadBytes = max;
+        lastUpdateMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Formats the latest readings, the total on the first line followed by one line per segment.
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        Map<String, Long> segments = segmentUnreadBytes;
+        builder.append(String.format("Lag: %d bytes unread in %d segments, at most %d in one segment",
+                unreadBytes, segments.size(), maxSegmentUnreadBytes));
+        for (Map.Entry<String, Long> segment : segments.entrySet()) {
+            builder.append(String.format("%n  %s: %d bytes unread", segment.getKey(), segment.getValue()));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String getReaderGroup() {
+        return readerGroupName;
+    }
+
+    @Override
+    public long getUnreadBytes() {
+        return unreadBytes;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return segmentUnreadBytes.size();
+    }
+
+    @Override
+    public long getMaxSegmentUnreadBytes() {
+        return maxSegmentUnreadBytes;
+    }
+
+    @Override
+    public Map<String, Long> getSegmentUnreadBytes() {
+        return segmentUnreadBytes;
+    }
+
+    @Override
+    public long getLastUpdateMillis() {
+        return lastUpdateMillis;
+    }
+
+    @Override
+    public void close() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Already gone.
+            }
+        }
+        readerGroup.close();
+        readerGroupManager.close();
+        clientFactory.close();
+    }
+}
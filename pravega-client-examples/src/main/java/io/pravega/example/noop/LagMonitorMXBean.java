@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.example.noop;
+
+import java.util.Map;
+
+/**
+ * The attributes {@link LagMonitor} exports through JMX.
+ */
+public interface LagMonitorMXBean {
+    String getReaderGroup();
+
+    long getUnreadBytes();
+
+    int getSegmentCount();
+
+    long getMaxSegmentUnreadBytes();
+
+    Map<String, Long> getSegmentUnreadBytes();
+
+    long getLastUpdateMillis();
+}
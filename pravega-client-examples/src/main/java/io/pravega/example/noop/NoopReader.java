@@ -10,9 +10,12 @@
  */
 package io.pravega.example.noop;
 
+import javax.management.JMException;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -21,32 +24,106 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.lang3.StringUtils;
 
+/**
+ * Reads a stream as fast as possible with a number of readers sharing one reader group, each on its own thread, and
+ * reports the read rate of every reader and of all of them together at a fixed interval, along with how many bytes
+ * the reader group has left to read.
+ */
 public class NoopReader {
     private static final String DEFAULT_STREAM_ID = "examples/null";
     private static final String DEFAULT_CONTROLLER_URI = "tcp://127.0.0.1:9090";
+    private static final int DEFAULT_READERS = 1;
+    private static final int DEFAULT_INTERVAL_SECONDS = 30;
+    private static final int DEFAULT_BATCH_SIZE = 0;
+    private static final int DEFAULT_BATCH_MILLIS = 100;
 
-    private AtomicLong eventsRead = new AtomicLong();
-    private AtomicLong bytesRead = new AtomicLong();
+    public void run(String scope, String streamName, URI controllerURI, int readerCount, int intervalSeconds,
+                    int batchSize, int batchMillis) throws InterruptedException {
+        System.out.printf("Reading events from %s/%s with %d readers\n", scope, streamName, readerCount);
 
-    public void run(String scope, String streamName, URI controllerURI) throws InterruptedException {
-        System.out.printf("Reading events from %s/%s\n", scope, streamName);
+        // Counted through striped adders, so that readers on different threads do not contend.
+        LongAdder[] eventsRead = new LongAdder[readerCount];
+        LongAdder[] bytesRead = new LongAdder[readerCount];
+        Thread[] threads = new Thread[readerCount];
+        String readerGroup = SimpleReader.createReaderGroup(scope, streamName, controllerURI);
+        for (int i = 0; i < readerCount; i++) {
+            LongAdder events = eventsRead[i] = new LongAdder();
+            LongAdder bytes = bytesRead[i] = new LongAdder();
+            SimpleReader<ByteBuffer> binaryReader = new SimpleReader<>(scope, streamName, controllerURI, readerGroup,
+                    "reader-" + i, new BinarySerializer(), (ByteBuffer buffer) -> {
+                        bytes.add(buffer.remaining());
+                        events.increment();
+                    });
+            if (batchSize > 0) {
+                // Counts a whole batch of views at once, instead of once per event.
+                binaryReader.setOnBatch((List<ByteBuffer> batch) -> {
+                    long size = 0;
+                    for (int j = 0; j < batch.size(); j++) {
+                        size += batch.get(j).remaining();
+                    }
+                    bytes.add(size);
+                    events.add(batch.size());
+                }, batchSize, batchMillis);
+            }
+            threads[i] = new Thread(binaryReader, "reader-" + i);
+            threads[i].start();
+        }
 
-        SimpleReader<ByteBuffer> binaryReader = new SimpleReader<>(scope, streamName, controllerURI, new BinarySerializer(), (ByteBuffer buffer) -> {
-            bytesRead.addAndGet(buffer.remaining());
-            eventsRead.incrementAndGet();
-        });
-        Thread thread = new Thread(binaryReader);
-        thread.start();
+        try (LagMonitor lagMonitor = new LagMonitor(scope, readerGroup, controllerURI)) {
+            try {
+                lagMonitor.register();
+            } catch (JMException e) {
+                System.out.printf("Lag will not be exported through JMX, %s\n", e);
+            }
+            long startTime = System.nanoTime();
+            long lastTime = startTime;
+            long[] lastEvents = new long[readerCount];
+            long[] lastBytes = new long[readerCount];
+            while (anyAlive(threads)) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(intervalSeconds));
+                long now = System.nanoTime();
+                double intervalSec = (now - lastTime) / 1e9;
+                double totalSec = (now - startTime) / 1e9;
+                long totalEvents = 0;
+                long totalBytes = 0;
+                long intervalEvents = 0;
+                long intervalBytes = 0;
+                for (int i = 0; i < readerCount; i++) {
+                    long events = eventsRead[i].sum();
+                    long bytes = bytesRead[i].sum();
+                    if (readerCount > 1) {
+                        System.out.printf("  reader-%d: %.1f events/s, %.1f bytes/s\n", i,
+                                (events - lastEvents[i]) / intervalSec, (bytes - lastBytes[i]) / intervalSec);
+                    }
+                    intervalEvents += events - lastEvents[i];
+                    intervalBytes += bytes - lastBytes[i];
+                    totalEvents += events;
+                    totalBytes += bytes;
+                    lastEvents[i] = events;
+                    lastBytes[i] = bytes;
+                }
+                System.out.printf("Events: %d read, %.1f/s (%.1f/s overall) -- "
+                                + "Bytes: %d read, %.1f/s (%.1f/s overall)\n",
+                        totalEvents, intervalEvents / intervalSec, totalEvents / totalSec,
+                        totalBytes, intervalBytes / intervalSec, totalBytes / totalSec);
+                try {
+                    lagMonitor.update();
+                    System.out.println(lagMonitor.format());
+                } catch (RuntimeException e) {
+                    System.out.printf("Lag: unavailable, %s\n", e);
+                }
+                lastTime = now;
+            }
+        }
+    }
 
-        long startTime = System.currentTimeMillis();
-        while (thread.isAlive()) {
-            float deltaSeconds = (System.currentTimeMillis() - startTime) / 1000;
-            long events = eventsRead.get();
-            long bytes = bytesRead.get();
-            System.out.printf("Events: %d read, %.1f/s -- Bytes: %d read, %.1f/s)\n",
-                    events, events / deltaSeconds, bytes, bytes / deltaSeconds);
-            Thread.sleep(30000);
+    private static boolean anyAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
         }
+        return false;
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -61,7 +138,13 @@ public class NoopReader {
             }
 
             final URI controllerURI = URI.create(cmd.getOptionValue("uri", DEFAULT_CONTROLLER_URI));
-            new NoopReader().run(streamId[0], streamId[1], controllerURI);
+            final int readers = Integer.parseInt(cmd.getOptionValue("readers", Integer.toString(DEFAULT_READERS)));
+            final int interval = Integer.parseInt(cmd.getOptionValue("interval",
+                    Integer.toString(DEFAULT_INTERVAL_SECONDS)));
+            final int batch = Integer.parseInt(cmd.getOptionValue("batch", Integer.toString(DEFAULT_BATCH_SIZE)));
+            final int batchTime = Integer.parseInt(cmd.getOptionValue("batchtime",
+                    Integer.toString(DEFAULT_BATCH_MILLIS)));
+            new NoopReader().run(streamId[0], streamId[1], controllerURI, readers, interval, batch, batchTime);
         }
         catch (ParseException e) {
             System.out.format("%s.%n", e.getMessage());
@@ -75,6 +158,10 @@ public class NoopReader {
         final Options options = new Options();
         options.addOption("s", "stream", true, "The stream ID in the format [scope]/[stream].");
         options.addOption("u", "uri", true, "The URI to the controller in the form tcp://host:port");
+        options.addOption("r", "readers", true, "The number of readers in the reader group, each on its own thread.");
+        options.addOption("i", "interval", true, "The number of seconds between reports.");
+        options.addOption("b", "batch", true, "The maximum number of events per callback, or 0 for one per event.");
+        options.addOption("t", "batchtime", true, "The maximum milliseconds to wait for a batch to fill up.");
         return options;
     }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.example.noop;
+
+import io.pravega.client.ClientFactory;
+import io.pravega.client.admin.StreamManager;
+import io.pravega.client.stream.EventStreamWriter;
+import io.pravega.client.stream.EventWriterConfig;
+import io.pravega.client.stream.ScalingPolicy;
+import io.pravega.client.stream.StreamConfiguration;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes raw byte events to a stream as fast as possible, the counterpart of {@link NoopReader}. Events are taken
+ * from a pool of reusable direct buffers, so no serialization or allocation happens per event. A buffer goes back to
+ * the pool once its write is acknowledged, so the size of the pool bounds the number of writes in flight.
+ */
+public class NoopWriter {
+    private static final String DEFAULT_STREAM_ID = "examples/null";
+    private static final String DEFAULT_CONTROLLER_URI = "tcp://127.0.0.1:9090";
+    private static final String DEFAULT_EVENT_SIZE = "1024";
+    private static final int DEFAULT_WRITERS = 1;
+    private static final int DEFAULT_SEGMENTS = 1;
+    private static final int DEFAULT_KEYS = 16;
+    private static final int DEFAULT_IN_FLIGHT = 1000;
+    private static final int DEFAULT_FLUSH_MILLIS = 0;
+    private static final int DEFAULT_INTERVAL_SECONDS = 30;
+    private static final int DEFAULT_DURATION_SECONDS = 0;
+    // Ack latencies are counted in microseconds, in log-linear buckets like those of HdrHistogram: every power of
+    // two range is split into SUB_BUCKET_COUNT / 2 linear buckets, so reported percentiles are within 1/64 (about
+    // 1.6%) of the actual value.
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LATENCY_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * (SUB_BUCKET_COUNT / 2);
+
+    private final LongAdder eventsWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder latencySumMicros = new LongAdder();
+    private final LongAccumulator latencyMaxMicros = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+    private volatile boolean running = true;
+
+    public void run(String scope, String streamName, URI controllerURI, int writerCount, int segments, int keyCount,
+                    int minSize, int maxSize, int maxInFlight, int flushMillis, int intervalSeconds,
+                    int durationSeconds) throws InterruptedException {
+        try (StreamManager streamManager = StreamManager.create(controllerURI)) {
+            streamManager.createScope(scope);
+            streamManager.createStream(scope, streamName, StreamConfiguration.builder()
+                    .scalingPolicy(ScalingPolicy.fixed(segments))
+                    .build());
+        }
+        System.out.printf("Writing events of %s bytes to %s/%s with %d writers, %d keys and %d writes in flight\n",
+                minSize == maxSize ? Integer.toString(minSize) : minSize + "-" + maxSize, scope, streamName,
+                writerCount, keyCount, maxInFlight);
+
+        final String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key-" + i;
+        }
+        final byte[] content = new byte[maxSize];
+        new Random(0).nextBytes(content);
+
+        Thread[] threads = new Thread[writerCount];
+        try (ClientFactory clientFactory = ClientFactory.withScope(scope, controllerURI)) {
+            for (int i = 0; i < writerCount; i++) {
+                // The in-flight writes are shared out between the writers, each of which has a pool of its own.
+                int poolSize = Math.max(1, maxInFlight / writerCount + (i < maxInFlight % writerCount ? 1 : 0));
+                BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(poolSize);
+                for (int j = 0; j < poolSize; j++) {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(maxSize);
+                    buffer.put(content);
+                    pool.add(buffer);
+                }
+                EventStreamWriter<ByteBuffer> writer = clientFactory.createEventWriter(streamName,
+                        new BinarySerializer(), EventWriterConfig.builder().build());
+                int offset = i;
+                threads[i] = new Thread(() -> write(writer, pool, keys, offset, minSize, maxSize, flushMillis),
+                        "writer-" + i);
+                threads[i].start();
+            }
+
+            long startTime = System.nanoTime();
+            long endTime = startTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+            long lastTime = startTime;
+            long lastEvents = 0;
+            long lastBytes = 0;
+            long[] lastBuckets = new long[LATENCY_BUCKETS];
+            while (running) {
+                long sleepNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+                if (durationSeconds > 0) {
+                    sleepNanos = Math.min(sleepNanos, endTime - System.nanoTime());
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, sleepNanos));
+                if (durationSeconds > 0 && System.nanoTime() - endTime >= 0) {
+                    running = false;
+                    for (Thread thread : threads) {
+                        thread.join();
+                    }
+                }
+                long now = System.nanoTime();
+                long events = eventsWritten.sum();
+                long bytes = bytesWritten.sum();
+                report(events - lastEvents, bytes - lastBytes, (now - lastTime) / 1e9, lastBuckets);
+                System.out.printf("  total: %d events, %d bytes, %d errors, %.1f events/s, %.3f MB/s overall\n",
+                        events, bytes, errors.sum(), events / ((now - startTime) / 1e9),
+                        bytes / ((now - startTime) / 1e9) / 1024 / 1024);
+                lastTime = now;
+                lastEvents = events;
+                lastBytes = bytes;
+            }
+        }
+    }
+
+    private void write(EventStreamWriter<ByteBuffer> writer, BlockingQueue<ByteBuffer> pool, String[] keys,
+                       int offset, int minSize, int maxSize, int flushMillis) {
+        final long flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        long lastFlush = System.nanoTime();
+        int next = keys.length == 0 ? 0 : offset % keys.length;
+        try {
+            while (running) {
+                // Blocks while all of this writer's buffers are in flight.
+                final ByteBuffer buffer = pool.take();
+                final int size = minSize == maxSize ? maxSize
+                        : ThreadLocalRandom.current().nextInt(minSize, maxSize + 1);
+                buffer.limit(size).position(0);
+                final long sendTime = System.nanoTime();
+                String key = null;
+                if (keys.length > 0) {
+                    key = keys[next];
+                    next = (next + 1) % keys.length;
+                }
+                (key == null ? writer.writeEvent(buffer) : writer.writeEvent(key, buffer))
+                        .whenComplete((result, throwable) -> {
+                            if (throwable != null) {
+                                errors.increment();
+                            } else {
+                                recordAck(size, System.nanoTime() - sendTime);
+                            }
+                            pool.offer(buffer);
+                        });
+                if (flushNanos > 0 && System.nanoTime() - lastFlush >= flushNanos) {
+                    writer.flush();
+                    lastFlush = System.nanoTime();
+                }
+            }
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void recordAck(int size, long latencyNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+        eventsWritten.increment();
+        bytesWritten.add(size);
+        latencySumMicros.add(micros);
+        latencyMaxMicros.accumulate(micros);
+        latencyBuckets.incrementAndGet(bucketOf(micros));
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * (SUB_BUCKET_COUNT / 2) + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket + 1 >= LATENCY_BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int next = bucket + 1;
+        if (next < SUB_BUCKET_COUNT) {
+            return next - 1;
+        }
+        int shift = next / (SUB_BUCKET_COUNT / 2) - 1;
+        return ((long) (next - shift * (SUB_BUCKET_COUNT / 2)) << shift) - 1;
+    }
+
+    private void report(long events, long bytes, double seconds, long[] lastBuckets) {
+        long[] counts = new long[LATENCY_BUCKETS];
+        long acks = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            long count = latencyBuckets.get(i);
+            counts[i] = count - lastBuckets[i];
+            lastBuckets[i] = count;
+            acks += counts[i];
+        }
+        long sumMicros = latencySumMicros.sumThenReset();
+        long maxMicros = latencyMaxMicros.getThenReset();
+        System.out.printf("Events: %.1f/s -- %.3f MB/s -- ack latency: %.3f ms avg, %.3f ms p50, %.3f ms p99, "
+                        + "%.3f ms p99.9, %.3f ms max\n", events / seconds, bytes / seconds / 1024 / 1024,
+                events == 0 ? 0 : sumMicros / 1000.0 / events, percentileMillis(counts, acks, 0.5, maxMicros),
+                percentileMillis(counts, acks, 0.99, maxMicros), percentileMillis(counts, acks, 0.999, maxMicros),
+                maxMicros / 1000.0);
+    }
+
+    /**
+     * Returns the highest latency, in milliseconds, of the bucket the given percentile of the latencies falls in,
+     * which is within the bucket resolution of the actual value.
+     */
+    private static double percentileMillis(long[] counts, long total, double percentile, long maxMicros) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), maxMicros) / 1000.0;
+            }
+        }
+        return maxMicros / 1000.0;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = getOptions();
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine cmd = parser.parse(options, args);
+
+            String[] streamId = StringUtils.split(cmd.getOptionValue("stream", DEFAULT_STREAM_ID), '/');
+            if(streamId.length != 2) {
+                throw new IllegalArgumentException("Stream spec must be in the form [scope]/[stream]");
+            }
+            String[] size = StringUtils.split(cmd.getOptionValue("size", DEFAULT_EVENT_SIZE), '-');
+            final int minSize = Integer.parseInt(size[0]);
+            final int maxSize = Integer.parseInt(size[size.length - 1]);
+            if (size.length > 2 || minSize < 0 || maxSize < minSize) {
+                throw new IllegalArgumentException("Event size must be in the form [bytes] or [min]-[max]");
+            }
+
+            final URI controllerURI = URI.create(cmd.getOptionValue("uri", DEFAULT_CONTROLLER_URI));
+            new NoopWriter().run(streamId[0], streamId[1], controllerURI,
+                    intOption(cmd, "writers", DEFAULT_WRITERS),
+                    intOption(cmd, "segments", DEFAULT_SEGMENTS),
+                    intOption(cmd, "keys", DEFAULT_KEYS),
+                    minSize, maxSize,
+                    intOption(cmd, "inflight", DEFAULT_IN_FLIGHT),
+                    intOption(cmd, "flush", DEFAULT_FLUSH_MILLIS),
+                    intOption(cmd, "interval", DEFAULT_INTERVAL_SECONDS),
+                    intOption(cmd, "duration", DEFAULT_DURATION_SECONDS));
+        }
+        catch (ParseException e) {
+            System.out.format("%s.%n", e.getMessage());
+            final HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("NoopWriter", options);
+            System.exit(1);
+        }
+    }
+
+    private static int intOption(CommandLine cmd, String name, int defaultValue) {
+        return Integer.parseInt(cmd.getOptionValue(name, Integer.toString(defaultValue)));
+    }
+
+    private static Options getOptions() {
+        final Options options = new Options();
+        options.addOption("s", "stream", true, "The stream ID in the format [scope]/[stream].");
+        options.addOption("u", "uri", true, "The URI to the controller in the form tcp://host:port");
+        options.addOption("w", "writers", true, "The number of writers, each on its own thread.");
+        options.addOption("g", "segments", true, "The number of segments of the stream, if it is created.");
+        options.addOption("k", "keys", true, "The number of distinct routing keys, or 0 for no routing keys.");
+        options.addOption("z", "size", true, "The event size in bytes, either fixed or in the form [min]-[max].");
+        options.addOption("f", "inflight", true, "The maximum number of writes in flight, over all writers.");
+        options.addOption("l", "flush", true, "The number of milliseconds between flushes, or 0 to never flush.");
+        options.addOption("i", "interval", true, "The number of seconds between reports.");
+        options.addOption("d", "duration", true, "The number of seconds to write for, or 0 to write forever.");
+        return options;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.example.noop;
+
+import io.pravega.client.ClientFactory;
+import io.pravega.client.admin.ReaderGroupManager;
+import io.pravega.client.admin.StreamManager;
+import io.pravega.client.segment.impl.Segment;
+import io.pravega.client.stream.EventRead;
+import io.pravega.client.stream.EventStreamReader;
+import io.pravega.client.stream.EventStreamWriter;
+import io.pravega.client.stream.EventWriterConfig;
+import io.pravega.client.stream.ReaderConfig;
+import io.pravega.client.stream.ReaderGroup;
+import io.pravega.client.stream.ReaderGroupConfig;
+import io.pravega.client.stream.ReinitializationRequiredException;
+import io.pravega.client.stream.ScalingPolicy;
+import io.pravega.client.stream.Stream;
+import io.pravega.client.stream.StreamConfiguration;
+import io.pravega.client.stream.StreamCut;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Measures how a reader group reacts to readers joining and leaving. While events are written to a multi-segment
+ * stream at a steady rate, readers are added to or removed from one reader group following a schedule of reader
+ * counts. Every reader tracks the segments it owns, through the position of the events it reads, and which of them
+ * each event advanced. For every change it reports:
+ *
+ * - the time until every segment is owned again, which for leaving readers is how long their segments were orphaned;
+ * - the time to rebalance, until the segments are spread evenly, at most one apart, over the readers;
+ * - the longest read stall of a single segment, the longest time a segment went unread after the change;
+ * - the longest read stall of the group as a whole, the longest gap between two events read by any reader.
+ *
+ * Ownership is sampled every 10 ms. Readers beyond the number of segments own none and sit idle.
+ *
+ * Once the readers have settled, a number of checkpoints are initiated one after the other and the time until each
+ * completes is reported, so that checkpoint latency can be compared across reader counts.
+ */
+public class RebalanceBenchmark {
+    private static final String DEFAULT_STREAM_ID = "examples/rebalance";
+    private static final String DEFAULT_CONTROLLER_URI = "tcp://127.0.0.1:9090";
+    private static final String DEFAULT_SCHEDULE = "1,2,4,8,4,2,1";
+    private static final int DEFAULT_SEGMENTS = 8;
+    private static final int DEFAULT_STEP_SECONDS = 30;
+    private static final int DEFAULT_CHECKPOINTS = 5;
+    private static final int DEFAULT_RATE = 1000;
+    private static final int EVENT_SIZE = 100;
+    private static final int ROUTING_KEYS = 1000;
+    private static final int READER_TIMEOUT_MS = 100;
+    private static final int POLL_MS = 10;
+
+    private final String scope;
+    private final String streamName;
+    private final URI controllerURI;
+    private final String readerGroupName = UUID.randomUUID().toString().replace("-", "");
+    private final List<BenchmarkReader> readers = new ArrayList<>();
+    // Group wide: when the last event was read and the longest gap between events since the last change.
+    private final AtomicLong lastEventNanos = new AtomicLong(System.nanoTime());
+    private final LongAccumulator longestGapNanos = new LongAccumulator(Math::max, 0);
+    // Per segment: when it was last read, and the longest time any segment went unread since the last change.
+    private final Map<Segment, Long> segmentReadNanos = new ConcurrentHashMap<>();
+    private final LongAccumulator longestSegmentGapNanos = new LongAccumulator(Math::max, 0);
+    private volatile long changeNanos = System.nanoTime();
+    private int segmentCount;
+    // Checkpoint completion times in milliseconds, by the number of readers they were taken with.
+    private final Map<Integer, List<Double>> checkpointMillis = new TreeMap<>();
+    private volatile boolean writing = true;
+    private int readerIds;
+    private int checkpointIds;
+
+    public RebalanceBenchmark(String scope, String streamName, URI controllerURI) {
+        this.scope = scope;
+        this.streamName = streamName;
+        this.controllerURI = controllerURI;
+    }
+
+    public void run(int[] schedule, int segments, int stepSeconds, int checkpoints, int rate)
+            throws InterruptedException {
+        try (StreamManager streamManager = StreamManager.create(controllerURI)) {
+            streamManager.createScope(scope);
+            streamManager.createStream(scope, streamName, StreamConfiguration.builder()
+                    .scalingPolicy(ScalingPolicy.fixed(segments))
+                    .build());
+        }
+        // Only the checkpoints initiated here are timed, so the group takes none of its own.
+        final ReaderGroupConfig readerGroupConfig = ReaderGroupConfig.builder()
+                .stream(Stream.of(scope, streamName))
+                .disableAutomaticCheckpoints()
+                .build();
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try (ClientFactory clientFactory = ClientFactory.withScope(scope, controllerURI);
+             ReaderGroupManager readerGroupManager = ReaderGroupManager.withScope(scope, controllerURI)) {
+            readerGroupManager.createReaderGroup(readerGroupName, readerGroupConfig);
+            Thread writer = new Thread(() -> write(clientFactory, rate), "writer");
+            writer.start();
+
+            try (ReaderGroup readerGroup = readerGroupManager.getReaderGroup(readerGroupName)) {
+                // The stream may already have existed, with another number of segments.
+                segmentCount = 0;
+                for (StreamCut cut : readerGroup.getStreamCuts().values()) {
+                    segmentCount += cut.asImpl().getPositions().size();
+                }
+                System.out.printf("Writing %d events/s to %s/%s with %d segments, reader counts %s, %d s apart\n",
+                        rate, scope, streamName, segmentCount, StringUtils.join(schedule, ','), stepSeconds);
+                for (int count : schedule) {
+                    if (count > segmentCount) {
+                        System.out.printf("Warning: %d readers for %d segments, %d readers will sit idle\n",
+                                count, segmentCount, count - segmentCount);
+                    }
+                }
+                for (int count : schedule) {
+                    change(clientFactory, count, stepSeconds);
+                    for (int i = 0; i < checkpoints; i++) {
+                        checkpoint(readerGroup, executor);
+                    }
+                }
+            } finally {
+                writing = false;
+                writer.join();
+                change(clientFactory, 0, 0);
+                readerGroupManager.deleteReaderGroup(readerGroupName);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        printCheckpointSummary();
+    }
+
+    /**
+     * Adds or removes readers until the group has the given number, then waits for a step to pass while measuring
+     * how long it takes until all segments are owned and spread evenly, and the longest read stalls.
+     */
+    private void change(ClientFactory clientFactory, int count, int stepSeconds) throws InterruptedException {
+        final int before = readers.size();
+        final long start = System.nanoTime();
+        changeNanos = start;
+        lastEventNanos.set(start);
+        longestGapNanos.reset();
+        longestSegmentGapNanos.reset();
+        while (readers.size() < count) {
+            BenchmarkReader reader = new BenchmarkReader(clientFactory, "reader-" + readerIds++);
+            readers.add(reader);
+            reader.thread.start();
+        }
+        while (readers.size() > count) {
+            BenchmarkReader reader = readers.remove(readers.size() - 1);
+            reader.running = false;
+            reader.thread.join();
+        }
+        if (stepSeconds == 0) {
+            return;
+        }
+
+        final long stepEndNanos = start + TimeUnit.SECONDS.toNanos(stepSeconds);
+        long ownedNanos = -1;
+        long balancedNanos = -1;
+        while (System.nanoTime() - stepEndNanos < 0) {
+            long now = System.nanoTime();
+            Set<Segment> owned = new HashSet<>();
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (BenchmarkReader reader : readers) {
+                Set<Segment> segments = reader.owned;
+                owned.addAll(segments);
+                min = Math.min(min, segments.size());
+                max = Math.max(max, segments.size());
+            }
+            if (ownedNanos < 0 && owned.size() >= segmentCount) {
+                ownedNanos = now;
+            }
+            if (balancedNanos < 0 && ownedNanos >= 0 && max - min <= 1) {
+                balancedNanos = now;
+            }
+            Thread.sleep(POLL_MS);
+        }
+        System.out.printf("Readers %d -> %d: %s, %s, longest segment stall %.1f ms, longest group stall %.1f ms\n",
+                before, count, since("all segments owned", ownedNanos, start, stepSeconds),
+                since("rebalanced", balancedNanos, start, stepSeconds),
+                longestSegmentGapNanos.get() / 1e6, longestGapNanos.get() / 1e6);
+    }
+
+    private static String since(String what, long nanos, long start, int stepSeconds) {
+        return nanos < 0 ? "not " + what + " within " + stepSeconds + " s"
+                : String.format("%s after %.1f ms", what, (nanos - start) / 1e6);
+    }
+
+    /**
+     * Records that a segment was read, and how long it went unread before, counted from the last change at most.
+     */
+    private void segmentRead(Segment segment, long now) {
+        Long last = segmentReadNanos.put(segment, now);
+        long since = last == null ? changeNanos : Math.max(last, changeNanos);
+        longestSegmentGapNanos.accumulate(now - since);
+    }
+
+    private void checkpoint(ReaderGroup readerGroup, ScheduledExecutorService executor) throws InterruptedException {
+        final String name = "checkpoint-" + checkpointIds++;
+        final long start = System.nanoTime();
+        try {
+            readerGroup.initiateCheckpoint(name, executor).get();
+            double millis = (System.nanoTime() - start) / 1e6;
+            checkpointMillis.computeIfAbsent(readers.size(), k -> new ArrayList<>()).add(millis);
+            System.out.printf("  %s with %d readers completed in %.1f ms\n", name, readers.size(), millis);
+        } catch (ExecutionException e) {
+            System.out.printf("  %s with %d readers failed: %s\n", name, readers.size(), e.getCause());
+        }
+    }
+
+    private void printCheckpointSummary() {
+        System.out.println("Checkpoint completion by reader count:");
+        for (Map.Entry<Integer, List<Double>> entry : checkpointMillis.entrySet()) {
+            List<Double> times = entry.getValue();
+            double min = Double.MAX_VALUE;
+            double max = 0;
+            double sum = 0;
+            for (double time : times) {
+                min = Math.min(min, time);
+                max = Math.max(max, time);
+                sum += time;
+            }
+            System.out.printf("  %d readers: %d checkpoints, %.1f ms min, %.1f ms avg, %.1f ms max\n",
+                    entry.getKey(), times.size(), min, sum / times.size(), max);
+        }
+    }
+
+    /**
+     * Writes events at a steady rate, spread over enough routing keys to reach every segment.
+     */
+    private void write(ClientFactory clientFactory, int rate) {
+        final ByteBuffer payload = ByteBuffer.allocate(EVENT_SIZE);
+        try (EventStreamWriter<ByteBuffer> writer = clientFactory.createEventWriter(streamName,
+                new BinarySerializer(), EventWriterConfig.builder().build())) {
+            final long start = System.nanoTime();
+            long written = 0;
+            while (writing) {
+                long due = (System.nanoTime() - start) * rate / TimeUnit.SECONDS.toNanos(1);
+                for (; written < due; written++) {
+                    writer.writeEvent("key-" + written % ROUTING_KEYS, payload.duplicate());
+                }
+                Thread.sleep(1);
+            }
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class BenchmarkReader implements Runnable {
+        private final ClientFactory clientFactory;
+        private final String readerId;
+        private final Thread thread;
+        // The segments this reader owned as of its last read.
+        private volatile Set<Segment> owned = Collections.emptySet();
+        private Map<Segment, Long> offsets = Collections.emptyMap();
+        private volatile boolean running = true;
+
+        BenchmarkReader(ClientFactory clientFactory, String readerId) {
+            this.clientFactory = clientFactory;
+            this.readerId = readerId;
+            this.thread = new Thread(this, readerId);
+        }
+
+        @Override
+        public void run() {
+            try (EventStreamReader<ByteBuffer> reader = clientFactory.createReader(readerId, readerGroupName,
+                    new BinarySerializer(), ReaderConfig.builder().build())) {
+                while (running) {
+                    try {
+                        // Checkpoints complete only as every reader passes them here.
+                        EventRead<ByteBuffer> event = reader.readNextEvent(READER_TIMEOUT_MS);
+                        long now = System.nanoTime();
+                        if (event.getPosition() == null) {
+                            continue;
+                        }
+                        Map<Segment, Long> current = event.getPosition().asImpl().getOwnedSegmentsWithOffsets();
+                        owned = current.keySet();
+                        if (event.getEvent() != null) {
+                            longestGapNanos.accumulate(now - lastEventNanos.getAndSet(now));
+                            // The event came from the segment whose offset moved.
+                            for (Map.Entry<Segment, Long> offset : current.entrySet()) {
+                                if (!offset.getValue().equals(offsets.get(offset.getKey()))) {
+                                    segmentRead(offset.getKey(), now);
+                                }
+                            }
+                        }
+                        offsets = current;
+                    } catch (ReinitializationRequiredException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = getOptions();
+        try {
+            CommandLineParser parser = new DefaultParser();
+            CommandLine cmd = parser.parse(options, args);
+
+            String[] streamId = StringUtils.split(cmd.getOptionValue("stream", DEFAULT_STREAM_ID), '/');
+            if(streamId.length != 2) {
+                throw new IllegalArgumentException("Stream spec must be in the form [scope]/[stream]");
+            }
+            String[] counts = StringUtils.split(cmd.getOptionValue("readers", DEFAULT_SCHEDULE), ',');
+            int[] schedule = new int[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                schedule[i] = Integer.parseInt(counts[i].trim());
+                if (schedule[i] < 1) {
+                    throw new IllegalArgumentException("Reader counts must be at least 1");
+                }
+            }
+
+            final URI controllerURI = URI.create(cmd.getOptionValue("uri", DEFAULT_CONTROLLER_URI));
+            new RebalanceBenchmark(streamId[0], streamId[1], controllerURI).run(schedule,
+                    intOption(cmd, "segments", DEFAULT_SEGMENTS),
+                    intOption(cmd, "step", DEFAULT_STEP_SECONDS),
+                    intOption(cmd, "checkpoints", DEFAULT_CHECKPOINTS),
+                    intOption(cmd, "rate", DEFAULT_RATE));
+        }
+        catch (ParseException e) {
+            System.out.format("%s.%n", e.getMessage());
+            final HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("RebalanceBenchmark", options);
+            System.exit(1);
+        }
+    }
+
+    private static int intOption(CommandLine cmd, String name, int defaultValue) {
+        return Integer.parseInt(cmd.getOptionValue(name, Integer.toString(defaultValue)));
+    }
+
+    private static Options getOptions() {
+        final Options options = new Options();
+        options.addOption("s", "stream", true, "The stream ID in the format [scope]/[stream].");
+        options.addOption("u", "uri", true, "The URI to the controller in the form tcp://host:port");
+        options.addOption("r", "readers", true, "The reader counts to go through, separated by commas.");
+        options.addOption("g", "segments", true, "The number of segments of the stream, if it is created.");
+        options.addOption("t", "step", true, "The number of seconds between changes of the reader count.");
+        options.addOption("c", "checkpoints", true, "The number of checkpoints to time at every reader count.");
+        options.addOption("w", "rate", true, "The number of events written per second.");
+        return options;
+    }
+}
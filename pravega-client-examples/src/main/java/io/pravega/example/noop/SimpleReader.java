@@ -22,8 +22,11 @@ import io.pravega.client.stream.Serializer;
 import io.pravega.client.stream.Stream;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class SimpleReader<T> implements Runnable {
@@ -32,19 +35,70 @@ public class SimpleReader<T> implements Runnable {
     private String scope;
     private String streamName;
     private URI controllerURI;
+    private String readerGroup;
+    private String readerId;
     private Serializer<T> serializer;
     private Consumer<T> onNext;
+    private Consumer<List<T>> onBatch;
+    private int maxBatchSize;
+    private long maxBatchNanos;
     private volatile boolean running;
     private Consumer<Throwable> onError = (Throwable throwable) -> throwable.printStackTrace();
 
     public SimpleReader(String scope, String streamName, URI controllerURI, Serializer<T> serializer, Consumer<T> onNext) {
+        this(scope, streamName, controllerURI, null, "reader", serializer, onNext);
+    }
+
+    /**
+     * Creates a reader that joins the given reader group, so that several readers can share the segments of the
+     * stream. If the reader group is null, the reader creates a reader group of its own.
+     */
+    public SimpleReader(String scope, String streamName, URI controllerURI, String readerGroup, String readerId,
+                        Serializer<T> serializer, Consumer<T> onNext) {
         this.scope = scope;
         this.streamName = streamName;
         this.controllerURI = controllerURI;
+        this.readerGroup = readerGroup;
+        this.readerId = readerId;
         this.serializer = serializer;
         this.onNext = onNext;
     }
 
+    /**
+     * Creates a new reader group, with a random name, that reads the given stream from its head.
+     *
+     * @return The name of the reader group.
+     */
+    public static String createReaderGroup(String scope, String streamName, URI controllerURI) {
+        final String readerGroup = UUID.randomUUID().toString().replace("-", "");
+        final ReaderGroupConfig readerGroupConfig = ReaderGroupConfig.builder()
+                .stream(Stream.of(scope, streamName))
+                .build();
+
+        try (ReaderGroupManager readerGroupManager = ReaderGroupManager.withScope(scope, controllerURI)) {
+            readerGroupManager.createReaderGroup(readerGroup, readerGroupConfig);
+        }
+        return readerGroup;
+    }
+
+    /**
+     * Delivers events in batches instead of one at a time, to amortize the cost of the callback over many events.
+     * A batch is delivered once it holds maxBatchSize events, once maxBatchMillis have passed since its first event
+     * was read, or as soon as the reader has nothing more to read, so that a partial batch is never held back.
+     *
+     * The list is reused, and so are the events in it if the serializer hands out views of the data read, like
+     * {@link BinarySerializer} does by default: both are only valid until the callback returns. Consumers that keep
+     * events must copy them.
+     */
+    public void setOnBatch(Consumer<List<T>> onBatch, int maxBatchSize, long maxBatchMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.onBatch = onBatch;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchMillis);
+    }
+
     public void setOnError(Consumer<Throwable> onError) {
         this.onError = onError;
     }
@@ -59,19 +113,16 @@ public class SimpleReader<T> implements Runnable {
 
     public void run() {
         setRunning(true);
-        final String readerGroup = UUID.randomUUID().toString().replace("-", "");
-        final ReaderGroupConfig readerGroupConfig = ReaderGroupConfig.builder()
-                .stream(Stream.of(scope, streamName))
-                .build();
-
-        try (ReaderGroupManager readerGroupManager = ReaderGroupManager.withScope(scope, controllerURI)) {
-            readerGroupManager.createReaderGroup(readerGroup, readerGroupConfig);
-        }
+        final String group = readerGroup != null ? readerGroup : createReaderGroup(scope, streamName, controllerURI);
 
         try (ClientFactory clientFactory = ClientFactory.withScope(scope, controllerURI);
-             EventStreamReader<T> reader = clientFactory.createReader("reader",
-                     readerGroup, serializer, ReaderConfig.builder().build())) {
+             EventStreamReader<T> reader = clientFactory.createReader(readerId,
+                     group, serializer, ReaderConfig.builder().build())) {
 
+            if (onBatch != null) {
+                readBatches(reader);
+                return;
+            }
             while (isRunning()) {
                 try {
                     EventRead<T> event = reader.readNextEvent(READER_TIMEOUT_MS);
@@ -86,4 +137,46 @@ public class SimpleReader<T> implements Runnable {
             }
         }
     }
+
+    private void readBatches(EventStreamReader<T> reader) {
+        final List<T> batch = new ArrayList<>(maxBatchSize);
+        long batchStart = 0;
+        while (isRunning()) {
+            try {
+                // Wait no longer than the time left to the current batch's budget.
+                long timeout = READER_TIMEOUT_MS;
+                if (!batch.isEmpty()) {
+                    long remaining = maxBatchNanos - (System.nanoTime() - batchStart);
+                    timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+                }
+                EventRead<T> event = reader.readNextEvent(timeout);
+                T eventData = event.getEvent();
+                if (eventData != null) {
+                    if (batch.isEmpty()) {
+                        batchStart = System.nanoTime();
+                    }
+                    batch.add(eventData);
+                }
+                if (batch.size() >= maxBatchSize || !batch.isEmpty()
+                        && (eventData == null || System.nanoTime() - batchStart >= maxBatchNanos)) {
+                    deliver(batch);
+                }
+            }
+            catch (ReinitializationRequiredException e) {
+                deliver(batch);
+                onError.accept(e);
+            }
+        }
+        deliver(batch);
+    }
+
+    private void deliver(List<T> batch) {
+        if (!batch.isEmpty()) {
+            try {
+                onBatch.accept(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
 }
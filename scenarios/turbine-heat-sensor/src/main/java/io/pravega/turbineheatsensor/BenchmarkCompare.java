@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the final summaries of two TurbineHeatSensor runs exported with {@code -csv}, and exits with a non-zero
+ * status if the candidate run regressed against the baseline by more than a threshold, so that it can gate a CI job.
+ * Throughput regresses when it drops; latency percentiles regress when they grow.
+ */
+public class BenchmarkCompare {
+    private static final double DEFAULT_THRESHOLD_PERCENT = 5.0;
+    private static final List<String> HIGHER_IS_BETTER = Arrays.asList("records_per_sec", "mb_per_sec");
+    private static final List<String> LOWER_IS_BETTER = Arrays.asList("p50_ms", "p99_ms", "p999_ms");
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        options.addOption("b", "baseline", true, "CSV export of the baseline run");
+        options.addOption("c", "candidate", true, "CSV export of the candidate run");
+        options.addOption("t", "threshold", true, "percentage by which a metric may get worse, "
+                + DEFAULT_THRESHOLD_PERCENT + " by default");
+        options.addOption("h", "help", false, "Help message");
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.out.format("%s.%n", e.getMessage());
+            new HelpFormatter().printHelp("BenchmarkCompare", options);
+            System.exit(2);
+            return;
+        }
+        if (cmd.hasOption("help") || !cmd.hasOption("baseline") || !cmd.hasOption("candidate")) {
+            new HelpFormatter().printHelp("BenchmarkCompare", options);
+            System.exit(cmd.hasOption("help") ? 0 : 2);
+        }
+        double threshold = cmd.hasOption("threshold") ?
+                Double.parseDouble(cmd.getOptionValue("threshold")) : DEFAULT_THRESHOLD_PERCENT;
+
+        Map<String, Map<String, Double>> baseline = readTotals(cmd.getOptionValue("baseline"));
+        Map<String, Map<String, Double>> candidate = readTotals(cmd.getOptionValue("candidate"));
+
+        int regressions = 0;
+        System.out.format("%-10s %-16s %14s %14s %9s%n", "stats", "metric", "baseline", "candidate", "change");
+        for (Map.Entry<String, Map<String, Double>> entry : baseline.entrySet()) {
+            Map<String, Double> candidateTotals = candidate.get(entry.getKey());
+            if (candidateTotals == null) {
+                System.out.format("%-10s missing from the candidate run%n", entry.getKey());
+                regressions++;
+                continue;
+            }
+            for (String metric : HIGHER_IS_BETTER) {
+                regressions += compare(entry.getKey(), metric, entry.getValue(), candidateTotals, -threshold);
+            }
+            for (String metric : LOWER_IS_BETTER) {
+                regressions += compare(entry.getKey(), metric, entry.getValue(), candidateTotals, threshold);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.format("%d regression(s) beyond %.1f%%.%n", regressions, threshold);
+            System.exit(1);
+        }
+        System.out.format("No regressions beyond %.1f%%.%n", threshold);
+    }
+
+    /**
+     * Prints one metric and returns 1 if it moved past the allowed change, a negative limit meaning the metric may
+     * only drop by that much and a positive one that it may only grow by that much.
+     */
+    private static int compare(String name, String metric, Map<String, Double> baseline,
+                               Map<String, Double> candidate, double limitPercent) {
+        double before = baseline.get(metric);
+        double after = candidate.get(metric);
+        double change = before != 0 ? 100.0 * (after - before) / before : 0.0;
+        boolean regressed = limitPercent < 0 ? change < limitPercent : change > limitPercent;
+        System.out.format("%-10s %-16s %14.3f %14.3f %+8.1f%%%s%n", name, metric, before, after, change,
+                regressed ? "  REGRESSION" : "");
+        return regressed ? 1 : 0;
+    }
+
+    /**
+     * Reads the final summary rows of a CSV export, by stats name.
+     */
+    private static Map<String, Map<String, Double>> readTotals(String file) throws IOException {
+        Map<String, Map<String, Double>> totals = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(CsvStatsExporter.HEADER)) {
+                throw new IOException(file + " is not a TurbineHeatSensor CSV export.");
+            }
+            String[] columns = header.split(",");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (!fields[0].equals(StatsSnapshot.TOTAL)) {
+                    continue;
+                }
+                Map<String, Double> values = new HashMap<>();
+                for (int i = 2; i < columns.length; i++) {
+                    if (HIGHER_IS_BETTER.contains(columns[i]) || LOWER_IS_BETTER.contains(columns[i])) {
+                        values.put(columns[i], Double.parseDouble(fields[i]));
+                    }
+                }
+                totals.put(fields[1], values);
+            }
+        }
+        return totals;
+    }
+}
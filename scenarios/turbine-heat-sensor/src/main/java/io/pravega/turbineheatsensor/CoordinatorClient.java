@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Connects a TurbineHeatSensor worker to a {@link LoadCoordinator}. The worker announces itself, waits for the
+ * coordinator to tell it when to start, and then sends every window and summary it exports, histogram included, so
+ * that the coordinator can merge them with those of the other workers.
+ *
+ * The protocol is line based:
+ *
+ * <pre>
+ * worker:      HELLO name
+ * coordinator: WELCOME workerIndex
+ * coordinator: START epochMs workerIndex
+ * worker:      STATS kind name startMs durationMs count bytes base64Histogram   (any number of times)
+ * worker:      DONE
+ * </pre>
+ *
+ * Fields are separated by single spaces, so spaces in names are sent as underscores.
+ */
+class CoordinatorClient implements StatsExporter {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+    private final int workerIndex;
+
+    /**
+     * Connects to the coordinator at the given host:port address.
+     */
+    CoordinatorClient(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Coordinator address must be host:port, got " + address);
+        }
+        this.socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        send("HELLO " + ManagementFactory.getRuntimeMXBean().getName().replace(' ', '_'));
+        String line = in.readLine();
+        if (line == null || !line.startsWith("WELCOME ")) {
+            socket.close();
+            throw new IOException("Expected WELCOME from the coordinator, got " + line);
+        }
+        this.workerIndex = Integer.parseInt(line.substring("WELCOME ".length()).trim());
+    }
+
+    /**
+     * Returns the index the coordinator gave this worker, unique among the workers of the run.
+     */
+    int getWorkerIndex() {
+        return workerIndex;
+    }
+
+    /**
+     * Waits for the coordinator to start the run.
+     *
+     * @return The wall clock time, in milliseconds since the epoch, at which all the workers start.
+     */
+    long awaitStart() throws IOException {
+        String line = in.readLine();
+        if (line == null || !line.startsWith("START ")) {
+            throw new IOException("Expected START from the coordinator, got " + line);
+        }
+        String[] fields = line.split(" ");
+        System.out.println("Worker " + fields[2] + " of the coordinated run, starting at " + fields[1]);
+        return Long.parseLong(fields[1]);
+    }
+
+    @Override
+    public synchronized void export(StatsSnapshot s, LatencyHistogram histogram) throws IOException {
+        send(String.format(Locale.ROOT, "STATS %s %s %d %.3f %d %d %s", s.getKind(), s.getName().replace(' ', '_'),
+                s.getStartTimeMs(), s.getDurationMs(), s.getCount(), s.getBytes(),
+                Base64.getEncoder().encodeToString(histogram.encode())));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            send("DONE");
+        } finally {
+            socket.close();
+        }
+    }
+
+    private synchronized void send(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+}
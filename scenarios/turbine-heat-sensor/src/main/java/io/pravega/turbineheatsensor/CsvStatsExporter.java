@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Writes one comma separated line per window and per final summary.
+ */
+class CsvStatsExporter implements StatsExporter {
+    static final String HEADER = "kind,name,start_ms,duration_ms,count,bytes,records_per_sec,mb_per_sec," +
+            "avg_ms,max_ms,p50_ms,p95_ms,p99_ms,p999_ms,gc_count,gc_time_ms,gc_longest_pause_ms," +
+            "alloc_mb_per_sec,heap_used_mb,gc_spike";
+
+    private final Writer writer;
+
+    CsvStatsExporter(Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    @Override
+    public synchronized void export(StatsSnapshot s, LatencyHistogram histogram) throws IOException {
+        writer.write(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%d,%d,%.3f,%.5f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                s.getKind(), s.getName(), s.getStartTimeMs(), s.getDurationMs(), s.getCount(), s.getBytes(),
+                s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(), s.getP50Ms(), s.getP95Ms(),
+                s.getP99Ms(), s.getP999Ms()));
+        GcMonitor.Activity gc = s.getGc();
+        if (gc != null) {
+            writer.write(String.format(Locale.ROOT, ",%d,%d,%d,%.3f,%.1f,%b\n", gc.getCollections(),
+                    gc.getCollectionTimeMs(), gc.getLongestPauseMs(), gc.getAllocatedMbPerSec(), gc.getHeapUsedMb(),
+                    s.isGcSpike()));
+        } else {
+            writer.write(",,,,,,\n");
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+/**
+ * A wall clock with nanosecond resolution, anchored to {@link System#currentTimeMillis()} once and advanced with
+ * {@link System#nanoTime()} from then on. Timestamps taken in the same process can be subtracted exactly; timestamps
+ * from different hosts are only as comparable as the hosts' clocks are synchronized.
+ */
+final class EpochClock {
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1000000L;
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    private EpochClock() {
+    }
+
+    /**
+     * Returns the current time in nanoseconds since the epoch.
+     */
+    static long nowNanos() {
+        return fromNanoTime(System.nanoTime());
+    }
+
+    /**
+     * Converts a {@link System#nanoTime()} reading taken in this process to nanoseconds since the epoch.
+     */
+    static long fromNanoTime(long nanoTime) {
+        return BASE_EPOCH_NANOS + (nanoTime - BASE_NANO_TIME);
+    }
+}
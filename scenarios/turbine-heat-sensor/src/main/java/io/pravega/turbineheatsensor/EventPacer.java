@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop pacing for a single event source. Each event has an intended send time fixed up front, evenly spread
+ * over every second, independently of how long earlier events took to be sent or acknowledged. Callers measure
+ * latency from the intended time returned by {@link #awaitNext()}, so time an event spends waiting behind a slow
+ * predecessor is counted instead of silently omitted.
+ */
+class EventPacer {
+    // Below this we spin instead of parking, as park granularity is typically tens of microseconds.
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final long intervalNanos;
+    private final long startNanos;
+    private long sent;
+
+    /**
+     * Creates a new pacer.
+     *
+     * @param eventsPerSec The constant rate to pace events at.
+     * @param startNanos   The {@link System#nanoTime()} at which the first event is due.
+     * @param phase        Fraction of one interval, in the range [0, 1), by which this source is offset so that
+     *                     several sources sharing a start time do not fire in lockstep.
+     */
+    EventPacer(int eventsPerSec, long startNanos, double phase) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / eventsPerSec;
+        this.startNanos = startNanos + (long) (phase * intervalNanos);
+    }
+
+    /**
+     * Waits until the next event is due.
+     *
+     * @return The intended send time of the event, in {@link System#nanoTime()} units. If the caller has fallen
+     * behind this is in the past, and the event should be sent immediately.
+     */
+    long awaitNext() throws InterruptedException {
+        long intended = startNanos + sent++ * intervalNanos;
+        awaitNanoTime(intended);
+        return intended;
+    }
+
+    /**
+     * Waits until the given {@link System#nanoTime()}, parking for most of the wait and spinning for the rest.
+     */
+    static void awaitNanoTime(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the garbage collection activity of this JVM through the platform MXBeans, so that latency windows can be
+ * correlated with client side GC. Collection counts and times come from the collector MXBeans; the duration of
+ * individual pauses and the bytes every collection reclaimed come from GC notifications, which HotSpot based JVMs
+ * emit. The allocated bytes are derived from the heap usage plus everything collected so far.
+ *
+ * Readings are cumulative, so any number of {@link PerfStats} can share one monitor and compute their own windows.
+ */
+class GcMonitor {
+    // How many recent pauses are remembered to find the longest one in a window
+    private static final int PAUSE_HISTORY = 1024;
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final long jvmStartMs = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final boolean notificationsSupported;
+
+    // Guarded by this.
+    private final long[] pauseEndMs = new long[PAUSE_HISTORY];
+    private final long[] pauseMs = new long[PAUSE_HISTORY];
+    private long pauses;
+    private long collectedBytes;
+
+    GcMonitor() {
+        boolean supported = true;
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener((n, handback) -> onNotification(n),
+                        null, null);
+            } else {
+                supported = false;
+            }
+        }
+        this.notificationsSupported = supported && !collectors.isEmpty();
+    }
+
+    private void onNotification(Notification notification) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long reclaimed = used(info.getGcInfo().getMemoryUsageBeforeGc()) -
+                used(info.getGcInfo().getMemoryUsageAfterGc());
+        // Concurrent collectors report their background cycles too, which do not stop the application.
+        boolean pause = !info.getGcName().contains("Concurrent");
+        synchronized (this) {
+            collectedBytes += Math.max(0, reclaimed);
+            if (pause) {
+                int slot = (int) (pauses++ % PAUSE_HISTORY);
+                pauseEndMs[slot] = jvmStartMs + info.getGcInfo().getEndTime();
+                pauseMs[slot] = info.getGcInfo().getDuration();
+            }
+        }
+    }
+
+    private static long used(Map<String, MemoryUsage> usages) {
+        long used = 0;
+        for (MemoryUsage usage : usages.values()) {
+            used += usage.getUsed();
+        }
+        return used;
+    }
+
+    /**
+     * Returns the cumulative GC activity of the JVM so far.
+     */
+    synchronized Reading read() {
+        long count = 0;
+        long timeMs = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+            timeMs += Math.max(0, collector.getCollectionTime());
+        }
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        long allocated = notificationsSupported ? heapUsed + collectedBytes : -1;
+        return new Reading(System.currentTimeMillis(), count, timeMs, allocated, heapUsed);
+    }
+
+    /**
+     * Returns the longest pause that ended in the given interval of wall clock time, or zero if there was none.
+     */
+    synchronized long longestPauseBetween(long fromMs, long toMs) {
+        long longest = 0;
+        for (long i = Math.max(0, pauses - PAUSE_HISTORY); i < pauses; i++) {
+            int slot = (int) (i % PAUSE_HISTORY);
+            if (pauseEndMs[slot] > fromMs && pauseEndMs[slot] <= toMs) {
+                longest = Math.max(longest, pauseMs[slot]);
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the GC activity between two readings.
+     */
+    Activity between(Reading from, Reading to) {
+        long allocated = from.allocatedBytes >= 0 ? to.allocatedBytes - from.allocatedBytes : -1;
+        return new Activity(to.timeMs - from.timeMs, to.collections - from.collections,
+                to.collectionTimeMs - from.collectionTimeMs, longestPauseBetween(from.timeMs, to.timeMs),
+                allocated, to.heapUsedBytes);
+    }
+
+    /**
+     * The cumulative GC counters at one point in time.
+     */
+    static final class Reading {
+        private final long timeMs;
+        private final long collections;
+        private final long collectionTimeMs;
+        private final long allocatedBytes;
+        private final long heapUsedBytes;
+
+        Reading(long timeMs, long collections, long collectionTimeMs, long allocatedBytes, long heapUsedBytes) {
+            this.timeMs = timeMs;
+            this.collections = collections;
+            this.collectionTimeMs = collectionTimeMs;
+            this.allocatedBytes = allocatedBytes;
+            this.heapUsedBytes = heapUsedBytes;
+        }
+    }
+
+    /**
+     * The GC activity over an interval, such as a reporting window.
+     */
+    static final class Activity {
+        private final long durationMs;
+        private final long collections;
+        private final long collectionTimeMs;
+        private final long longestPauseMs;
+        private final long allocatedBytes;
+        private final long heapUsedBytes;
+
+        Activity(long durationMs, long collections, long collectionTimeMs, long longestPauseMs, long allocatedBytes,
+                 long heapUsedBytes) {
+            this.durationMs = durationMs;
+            this.collections = collections;
+            this.collectionTimeMs = collectionTimeMs;
+            this.longestPauseMs = longestPauseMs;
+            this.allocatedBytes = allocatedBytes;
+            this.heapUsedBytes = heapUsedBytes;
+        }
+
+        /**
+         * Returns a copy of this activity with the given longest pause, for intervals too long for the pause history.
+         */
+        Activity withLongestPause(long pauseMs) {
+            return new Activity(durationMs, collections, collectionTimeMs, pauseMs, allocatedBytes, heapUsedBytes);
+        }
+
+        long getCollections() {
+            return collections;
+        }
+
+        long getCollectionTimeMs() {
+            return collectionTimeMs;
+        }
+
+        long getLongestPauseMs() {
+            return longestPauseMs;
+        }
+
+        /**
+         * Returns the allocation rate in MB/sec, or a negative value if it is unknown.
+         */
+        double getAllocatedMbPerSec() {
+            if (allocatedBytes < 0 || durationMs <= 0) {
+                return -1;
+            }
+            return 1000.0 * allocatedBytes / durationMs / (1024.0 * 1024.0);
+        }
+
+        double getHeapUsedMb() {
+            return heapUsedBytes / (1024.0 * 1024.0);
+        }
+    }
+}
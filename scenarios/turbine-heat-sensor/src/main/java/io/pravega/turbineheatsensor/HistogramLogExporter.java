@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Saves the full latency histogram of every window and final summary, one line each:
+ *
+ * <pre>
+ * kind,name,start_ms,duration_ms,base64 of the compressed histogram
+ * </pre>
+ *
+ * See {@link LatencyHistogram#encode()} for the histogram encoding. Lines starting with '#' are comments.
+ * Several logs, or several windows of one log, can be merged by decoding and adding up their histograms.
+ */
+class HistogramLogExporter implements StatsExporter {
+    private final Writer writer;
+
+    HistogramLogExporter(Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writer.write("# TurbineHeatSensor latency histograms in nanoseconds\n");
+        writer.write("# kind,name,start_ms,duration_ms,histogram\n");
+    }
+
+    @Override
+    public synchronized void export(StatsSnapshot s, LatencyHistogram histogram) throws IOException {
+        writer.write(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%s\n", s.getKind(), s.getName(),
+                s.getStartTimeMs(), s.getDurationMs(), Base64.getEncoder().encodeToString(histogram.encode())));
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends a fixed fraction of the events to a single hot key and spreads the rest uniformly over the other keys.
+ */
+class HotKeyRoutingKeys implements RoutingKeyGenerator {
+    private final String[] keys;
+    private final double hotFraction;
+
+    /**
+     * Creates a new generator.
+     *
+     * @param keyCount    The total number of keys, including the hot one.
+     * @param hotFraction The fraction of events, in the range [0, 1], that use the hot key.
+     */
+    HotKeyRoutingKeys(int keyCount, double hotFraction) {
+        this.keys = RoutingKeyGenerator.keys(keyCount);
+        this.hotFraction = hotFraction;
+    }
+
+    @Override
+    public int keyCount() {
+        return keys.length;
+    }
+
+    @Override
+    public String key(int index, String sensorKey) {
+        return keys[index];
+    }
+
+    @Override
+    public int nextKeyIndex() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (keys.length == 1 || random.nextDouble() < hotFraction) {
+            return 0;
+        }
+        return 1 + random.nextInt(keys.length - 1);
+    }
+}
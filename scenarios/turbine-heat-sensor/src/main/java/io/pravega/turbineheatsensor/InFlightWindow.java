@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of writes a producer may have outstanding and keeps track of how many are in flight. A sender
+ * calls {@link #acquire()} before every write, which blocks while the window is full, or {@link #tryAcquire()}, which
+ * does not, and the write's completion callback calls {@link #release()}.
+ */
+class InFlightWindow {
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * Creates a new window.
+     *
+     * @param maxOutstanding The maximum number of outstanding writes, or zero for no limit.
+     */
+    InFlightWindow(int maxOutstanding) {
+        this.permits = maxOutstanding > 0 ? new Semaphore(maxOutstanding) : null;
+    }
+
+    void acquire() throws InterruptedException {
+        if (permits != null) {
+            permits.acquire();
+        }
+        int depth = inFlight.incrementAndGet();
+        if (depth > peak.get()) {
+            peak.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * Takes room for a write if there is any, without waiting.
+     *
+     * @return Whether the write may go ahead.
+     */
+    boolean tryAcquire() {
+        if (permits != null && !permits.tryAcquire()) {
+            return false;
+        }
+        int depth = inFlight.incrementAndGet();
+        if (depth > peak.get()) {
+            peak.accumulateAndGet(depth, Math::max);
+        }
+        return true;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the highest number of writes that were in flight at once since the previous call.
+     */
+    int getAndResetPeak() {
+        return peak.getAndSet(inFlight.get());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Writes one JSON object per line for every window and final summary.
+ */
+class JsonStatsExporter implements StatsExporter {
+    private final Writer writer;
+
+    JsonStatsExporter(Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void export(StatsSnapshot s, LatencyHistogram histogram) throws IOException {
+        writer.write(String.format(Locale.ROOT, "{\"kind\":\"%s\",\"name\":\"%s\",\"startMs\":%d," +
+                        "\"durationMs\":%.3f,\"count\":%d,\"bytes\":%d,\"recordsPerSec\":%.3f,\"mbPerSec\":%.5f," +
+                        "\"avgMs\":%.3f,\"maxMs\":%.3f,\"p50Ms\":%.3f,\"p95Ms\":%.3f,\"p99Ms\":%.3f," +
+                        "\"p999Ms\":%.3f",
+                s.getKind(), s.getName(), s.getStartTimeMs(), s.getDurationMs(), s.getCount(), s.getBytes(),
+                s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(), s.getP50Ms(), s.getP95Ms(),
+                s.getP99Ms(), s.getP999Ms()));
+        GcMonitor.Activity gc = s.getGc();
+        if (gc != null) {
+            writer.write(String.format(Locale.ROOT, ",\"gcCount\":%d,\"gcTimeMs\":%d,\"gcLongestPauseMs\":%d," +
+                            "\"allocMbPerSec\":%.3f,\"heapUsedMb\":%.1f,\"gcSpike\":%b",
+                    gc.getCollections(), gc.getCollectionTimeMs(), gc.getLongestPauseMs(),
+                    gc.getAllocatedMbPerSec(), gc.getHeapUsedMb(), s.isGcSpike()));
+        }
+        writer.write("}\n");
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
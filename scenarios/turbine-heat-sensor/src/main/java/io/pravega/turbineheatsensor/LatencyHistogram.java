@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A log-bucketed latency histogram in the style of HdrHistogram. Values are grouped by their highest set bit and
+ * each power-of-two range is split into {@link #SUB_BUCKET_COUNT} / 2 linear sub-buckets, which bounds the relative
+ * error of any reported value to roughly 1.5% while covering the whole positive {@code long} range in a fixed
+ * footprint of {@link #BUCKET_COUNT} counters.
+ *
+ * This class is not thread safe: concurrent recording goes through {@link LatencyRecorder}, which drains into an
+ * instance of this class from a single reporting thread.
+ */
+class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long totalValue;
+    private long maxValue;
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return (long) (index - shift * SUB_BUCKET_HALF) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        return index + 1 < BUCKET_COUNT ? lowestValueAt(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    void record(long value) {
+        recordCount(indexOf(value), 1);
+        totalValue += value;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    void recordCount(int index, long count) {
+        counts[index] += count;
+        totalCount += count;
+    }
+
+    void addTotals(long value, long max) {
+        totalValue += value;
+        maxValue = Math.max(maxValue, max);
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalValue = 0;
+        maxValue = 0;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getMaxValue() {
+        return maxValue;
+    }
+
+    double getMean() {
+        return totalCount == 0 ? 0.0 : (double) totalValue / totalCount;
+    }
+
+    /**
+     * Returns the highest value that is equivalent, within the histogram resolution, to the value below which the
+     * given fraction of the recorded values fall.
+     *
+     * @param fraction A fraction in the range [0, 1], e.g. 0.99 for the 99th percentile.
+     * @return The value at the given fraction, or zero if nothing was recorded.
+     */
+    long getValueAtFraction(double fraction) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    long[] getValuesAtFractions(double... fractions) {
+        long[] values = new long[fractions.length];
+        for (int i = 0; i < fractions.length; i++) {
+            values[i] = getValueAtFraction(fractions[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Encodes this histogram compactly, so it can be saved or sent elsewhere and merged later without losing any
+     * resolution. Only the non-empty buckets are written, as (index delta, count) pairs of variable length integers,
+     * and the result is deflated.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            writeVarLong(out, totalValue);
+            writeVarLong(out, maxValue);
+            int last = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (counts[i] != 0) {
+                    writeVarLong(out, i - last + 1);
+                    writeVarLong(out, counts[i]);
+                    last = i;
+                }
+            }
+            writeVarLong(out, 0);
+        } catch (IOException e) {
+            // Cannot happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a histogram produced by {@link #encode()}.
+     */
+    static LatencyHistogram decode(byte[] encoded) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(encoded)))) {
+            histogram.addTotals(readVarLong(in), readVarLong(in));
+            int index = 0;
+            long delta;
+            while ((delta = readVarLong(in)) != 0) {
+                index += (int) delta - 1;
+                if (index < 0 || index >= BUCKET_COUNT) {
+                    throw new IOException("Corrupt histogram, bucket index " + index + " out of range.");
+                }
+                histogram.recordCount(index, readVarLong(in));
+            }
+        }
+        return histogram;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt histogram, variable length integer too long.");
+    }
+}
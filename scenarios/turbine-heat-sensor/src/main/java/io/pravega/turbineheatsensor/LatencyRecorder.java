@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies from many threads without taking locks. Every recording thread is mapped onto one of a fixed
+ * number of stripes, each holding its own set of atomic bucket counters laid out like {@link LatencyHistogram}, so
+ * concurrent callbacks rarely touch the same cache lines. A reporting thread periodically calls
+ * {@link #drainInto(LatencyHistogram)} to move everything recorded so far into a regular histogram.
+ *
+ * Every stripe has two cells of counters, one of which is recorded into while the other is drained. A drain swaps
+ * them and then waits for the recordings that may still be writing to the old cell, in the way of HdrHistogram's
+ * WriterReaderPhaser, so the count, total and maximum of every value always land in the same drain.
+ */
+class LatencyRecorder {
+    private final Stripe[] stripes;
+    private final int mask;
+
+    LatencyRecorder() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    LatencyRecorder(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    void record(long value) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        long epoch = stripe.startEpoch.getAndIncrement();
+        try {
+            stripe.active.record(value);
+        } finally {
+            (epoch < 0 ? stripe.oddEndEpoch : stripe.evenEndEpoch).incrementAndGet();
+        }
+    }
+
+    /**
+     * Moves all the values recorded since the previous call into the given histogram. Values recorded concurrently
+     * with a drain end up either in this drain or in the next one, but are never lost or counted twice.
+     *
+     * @param target The histogram that receives the drained values.
+     */
+    synchronized void drainInto(LatencyHistogram target) {
+        for (Stripe stripe : stripes) {
+            Cell drained = stripe.flip();
+            for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                if (drained.counts.get(i) != 0) {
+                    target.recordCount(i, drained.counts.getAndSet(i, 0));
+                }
+            }
+            target.addTotals(drained.total.getAndSet(0), drained.max.getAndSet(0));
+        }
+    }
+
+    private static final class Cell {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            counts.incrementAndGet(LatencyHistogram.indexOf(value));
+            total.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry until we either win or another thread records a larger value
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private volatile Cell active = new Cell();
+        private Cell inactive = new Cell();
+        // Recordings enter by incrementing the start epoch and leave by incrementing the end epoch of their phase;
+        // the sign of the start epoch tells the phase.
+        private final AtomicLong startEpoch = new AtomicLong();
+        private final AtomicLong evenEndEpoch = new AtomicLong();
+        private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Makes the inactive cell the one recorded into and returns the previously active cell, once no recording
+         * is writing to it any more.
+         */
+        Cell flip() {
+            Cell drained = active;
+            active = inactive;
+            inactive = drained;
+
+            boolean nextPhaseIsEven = startEpoch.get() < 0;
+            long initialEpoch = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+            (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialEpoch);
+            long startEpochAtFlip = startEpoch.getAndSet(initialEpoch);
+            AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+            while (endEpoch.get() != startEpochAtFlip) {
+                Thread.yield();
+            }
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs TurbineHeatSensor across several JVMs, on one or more hosts, and merges their results into one report.
+ *
+ * The coordinator launches {@code -workers} local worker JVMs and waits for {@code -remote} more to connect, started
+ * by hand elsewhere with {@code -coordinator host:port}. Once all of them are connected it tells them to start at
+ * the same wall clock time. Every worker writes to and reads from streams of its own, so that no worker reads or
+ * verifies the events of another. Workers then send every window and summary with its full latency histogram (see
+ * {@link CoordinatorClient}); windows are merged by the reporting interval they fall in and summaries by name, so
+ * the combined percentiles are computed from the combined histograms rather than averaged.
+ *
+ * Workers that do not connect within {@code -timeout} seconds are left out of the run, and a worker that sends
+ * nothing for as long is given up on. An interval is reported once every live worker has either reported it or
+ * moved on past it, since a worker sends nothing for a window in which it recorded nothing.
+ */
+public class LoadCoordinator {
+    private static final String TURBINE_SENSOR_CLASS = "io.pravega.turbineheatsensor.TurbineHeatSensor";
+
+    private static int port = 9099;
+    private static int localWorkers = 2;
+    private static int remoteWorkers = 0;
+    // Time the workers are given between being told to start and starting, in milliseconds
+    private static int startDelayMs = 3000;
+    private static int reportingInterval = 1000;
+    // How long to wait for the workers to connect, and for a connected worker to send anything, in seconds
+    private static int timeoutSec = 120;
+    private static String[] workerArgs = new String[0];
+    private static String csvFile = null;
+    private static String jsonFile = null;
+    private static String histLogFile = null;
+
+    private final int workerCount;
+    private final List<StatsExporter> exporters;
+    private long startMs;
+
+    // Guarded by this. Windows are merged per kind and name, by interval index; summaries per kind and name.
+    private final Map<String, TreeMap<Long, Merged>> windows = new LinkedHashMap<>();
+    private final Map<String, Merged> summaries = new LinkedHashMap<>();
+    // Guarded by this. The highest interval every worker has reported a window for, and whether it may report more.
+    private final long[] progress;
+    private final boolean[] live;
+
+    private LoadCoordinator(int workerCount, List<StatsExporter> exporters) {
+        this.workerCount = workerCount;
+        this.exporters = exporters;
+        this.progress = new long[workerCount];
+        this.live = new boolean[workerCount];
+        Arrays.fill(progress, Long.MIN_VALUE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        parseCmdLine(args);
+        List<StatsExporter> exporters = new ArrayList<>();
+        if (csvFile != null) {
+            exporters.add(new CsvStatsExporter(Paths.get(csvFile)));
+        }
+        if (jsonFile != null) {
+            exporters.add(new JsonStatsExporter(Paths.get(jsonFile)));
+        }
+        if (histLogFile != null) {
+            exporters.add(new HistogramLogExporter(Paths.get(histLogFile)));
+        }
+        new LoadCoordinator(localWorkers + remoteWorkers, exporters).run();
+        for (StatsExporter exporter : exporters) {
+            exporter.close();
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Coordinating " + workerCount + " workers on port " + server.getLocalPort());
+            List<Process> processes = launchWorkers(server.getLocalPort());
+
+            List<Socket> sockets = new ArrayList<>();
+            List<BufferedReader> readers = new ArrayList<>();
+            List<Writer> writers = new ArrayList<>();
+            int timeoutMs = (int) TimeUnit.SECONDS.toMillis(timeoutSec);
+            long connectDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSec);
+            while (sockets.size() < workerCount) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(connectDeadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    break;
+                }
+                server.setSoTimeout((int) remainingMs);
+                Socket socket;
+                String hello;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                socket.setSoTimeout(timeoutMs);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8));
+                try {
+                    hello = reader.readLine();
+                } catch (SocketTimeoutException e) {
+                    hello = null;
+                }
+                if (hello == null || !hello.startsWith("HELLO ")) {
+                    System.err.println("Ignoring a connection that did not say HELLO: " + hello);
+                    socket.close();
+                    continue;
+                }
+                System.out.println("Worker " + sockets.size() + " connected: " + hello.substring(6));
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                writer.write("WELCOME " + sockets.size() + "\n");
+                writer.flush();
+                sockets.add(socket);
+                readers.add(reader);
+                writers.add(writer);
+            }
+            if (sockets.isEmpty()) {
+                throw new IOException("No worker connected within " + timeoutSec + " s");
+            } else if (sockets.size() < workerCount) {
+                System.out.println("Starting with " + sockets.size() + " of " + workerCount + " workers, the " +
+                        "others did not connect within " + timeoutSec + " s");
+            }
+            synchronized (this) {
+                Arrays.fill(live, 0, sockets.size(), true);
+            }
+
+            startMs = System.currentTimeMillis() + startDelayMs;
+            for (int i = 0; i < sockets.size(); i++) {
+                writers.get(i).write("START " + startMs + " " + i + "\n");
+                writers.get(i).flush();
+            }
+
+            List<Thread> listeners = new ArrayList<>();
+            for (int i = 0; i < sockets.size(); i++) {
+                final int worker = i;
+                final BufferedReader reader = readers.get(i);
+                Thread listener = new Thread(() -> listen(worker, reader), "coordinator-worker-" + i);
+                listener.start();
+                listeners.add(listener);
+            }
+            for (Thread listener : listeners) {
+                listener.join();
+            }
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(timeoutSec, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+        }
+        printSummaries();
+    }
+
+    private List<Process> launchWorkers(int coordinatorPort) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        if (localWorkers == 0) {
+            return processes;
+        }
+        Path logDir = Files.createTempDirectory("turbine-workers");
+        System.out.println("Local worker logs are kept in " + logDir);
+        for (int i = 0; i < localWorkers; i++) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), TURBINE_SENSOR_CLASS,
+                    "-coordinator", "localhost:" + coordinatorPort,
+                    "-reporting", Integer.toString(reportingInterval)));
+            command.addAll(Arrays.asList(workerArgs));
+            processes.add(new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(logDir.toFile(), "worker-" + i + ".log"))
+                    .start());
+        }
+        return processes;
+    }
+
+    private void listen(int worker, BufferedReader reader) {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals("DONE")) {
+                if (line.startsWith("STATS ")) {
+                    try {
+                        merge(worker, line.split(" "));
+                    } catch (RuntimeException e) {
+                        // Skip the line rather than lose the rest of this worker's statistics.
+                        System.err.println("Ignoring malformed statistics from worker " + worker + ": " + e);
+                    }
+                }
+            }
+            System.out.println("Worker " + worker + " is done");
+        } catch (SocketTimeoutException e) {
+            System.err.println("Giving up on worker " + worker + ", which sent nothing for " + timeoutSec + " s");
+        } catch (IOException e) {
+            System.err.println("Lost worker " + worker + ": " + e.getMessage());
+        }
+        workerGone(worker);
+    }
+
+    private synchronized void merge(int worker, String[] fields) throws IOException {
+        String kind = fields[1];
+        String name = fields[2];
+        long windowStartMs = Long.parseLong(fields[3]);
+        double durationMs = Double.parseDouble(fields[4]);
+        long bytes = Long.parseLong(fields[6]);
+        LatencyHistogram histogram = LatencyHistogram.decode(Base64.getDecoder().decode(fields[7]));
+
+        if (kind.contains(StatsSnapshot.WINDOW)) {
+            long interval = Math.round((double) (windowStartMs - startMs) / reportingInterval);
+            progress[worker] = Math.max(progress[worker], interval);
+            TreeMap<Long, Merged> intervals = windows.computeIfAbsent(kind + " " + name, k -> new TreeMap<>());
+            Merged merged = intervals.computeIfAbsent(interval, i -> new Merged(kind, name));
+            merged.add(worker, windowStartMs, durationMs, bytes, histogram);
+            reportCompleteWindows();
+        } else {
+            summaries.computeIfAbsent(kind + " " + name, k -> new Merged(kind, name))
+                    .add(worker, windowStartMs, durationMs, bytes, histogram);
+        }
+    }
+
+    /**
+     * Stops waiting for the given worker, which is done or lost, before reporting an interval.
+     */
+    private synchronized void workerGone(int worker) {
+        live[worker] = false;
+        reportCompleteWindows();
+    }
+
+    /**
+     * Reports the intervals of every kind and name in order, as long as they are complete.
+     */
+    private void reportCompleteWindows() {
+        for (TreeMap<Long, Merged> intervals : windows.values()) {
+            while (!intervals.isEmpty() && isComplete(intervals.firstKey(), intervals.firstEntry().getValue())) {
+                report(intervals.pollFirstEntry().getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns whether every live worker has reported the given interval or moved on past it. The windows of a
+     * worker's different statistics do not close at quite the same time, so a worker only counts as having moved on
+     * once it has reported a window two intervals later.
+     */
+    private boolean isComplete(long interval, Merged merged) {
+        for (int i = 0; i < workerCount; i++) {
+            if (live[i] && !merged.workers.get(i) && progress[i] <= interval + 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the windows not every worker reported, such as those in which some workers were idle, and then the
+     * merged summaries.
+     */
+    private synchronized void printSummaries() {
+        for (TreeMap<Long, Merged> intervals : windows.values()) {
+            intervals.values().forEach(this::report);
+        }
+        System.out.println();
+        for (Merged merged : summaries.values()) {
+            report(merged);
+        }
+    }
+
+    private void report(Merged merged) {
+        StatsSnapshot s = StatsSnapshot.of(merged.kind, merged.name, merged.startMs, merged.durationMs,
+                merged.bytes, merged.histogram);
+        System.out.printf("%s %s (%d workers): %d records, %.1f records/sec (%.5f MB/sec), %.2f ms avg latency, " +
+                        "%.2f ms max latency, %.2f ms 50th, %.2f ms 95th, %.2f ms 99th, %.2f ms 99.9th.\n",
+                s.getName(), s.getKind(), merged.reports, s.getCount(), s.getRecordsPerSec(), s.getMbPerSec(),
+                s.getMeanMs(), s.getMaxMs(), s.getP50Ms(), s.getP95Ms(), s.getP99Ms(), s.getP999Ms());
+        for (StatsExporter exporter : exporters) {
+            try {
+                exporter.export(s, merged.histogram);
+            } catch (IOException e) {
+                System.err.println("Failed to export " + s.getName() + " statistics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The windows or summaries of several workers for the same interval, merged. The workers run concurrently, so
+     * the merged interval spans from the earliest start to the latest end among them.
+     */
+    private static final class Merged {
+        private final String kind;
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final BitSet workers = new BitSet();
+        private long startMs = Long.MAX_VALUE;
+        private double endMs;
+        private double durationMs;
+        private long bytes;
+        private int reports;
+
+        Merged(String kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        void add(int worker, long startMs, double durationMs, long bytes, LatencyHistogram histogram) {
+            this.startMs = Math.min(this.startMs, startMs);
+            this.endMs = Math.max(this.endMs, startMs + durationMs);
+            this.durationMs = endMs - this.startMs;
+            this.bytes += bytes;
+            this.histogram.add(histogram);
+            this.workers.set(worker);
+            this.reports++;
+        }
+    }
+
+    private static void parseCmdLine(String[] args) {
+        Options options = new Options();
+        options.addOption("port", true, "port the workers connect to");
+        options.addOption("workers", true, "number of worker JVMs to launch on this host");
+        options.addOption("remote", true, "number of workers started elsewhere with -coordinator host:port");
+        options.addOption("startdelay", true, "milliseconds between all workers connecting and starting");
+        options.addOption("reporting", true, "Reporting interval of the workers in milliseconds");
+        options.addOption("timeout", true, "seconds to wait for the workers to connect, and for a connected worker " +
+                "to send anything, before going on without it");
+        options.addOption("args", true, "arguments passed to every local worker");
+        options.addOption("csv", true, "File to export the merged windows and summaries to as CSV");
+        options.addOption("json", true, "File to export the merged windows and summaries to as JSON lines");
+        options.addOption("histlog", true, "File to save the merged latency histograms to");
+        options.addOption("help", false, "Help message");
+
+        CommandLineParser parser = new DefaultParser();
+        try {
+            CommandLine commandline = parser.parse(options, args);
+            if (commandline.hasOption("help")) {
+                new HelpFormatter().printHelp("LoadCoordinator", options);
+                System.exit(0);
+            }
+            port = Integer.parseInt(commandline.getOptionValue("port", Integer.toString(port)));
+            localWorkers = Integer.parseInt(commandline.getOptionValue("workers", Integer.toString(localWorkers)));
+            remoteWorkers = Integer.parseInt(commandline.getOptionValue("remote", Integer.toString(remoteWorkers)));
+            startDelayMs = Integer.parseInt(commandline.getOptionValue("startdelay",
+                    Integer.toString(startDelayMs)));
+            reportingInterval = Integer.parseInt(commandline.getOptionValue("reporting",
+                    Integer.toString(reportingInterval)));
+            timeoutSec = Integer.parseInt(commandline.getOptionValue("timeout", Integer.toString(timeoutSec)));
+            if (commandline.hasOption("args") && !commandline.getOptionValue("args").trim().isEmpty()) {
+                workerArgs = commandline.getOptionValue("args").trim().split("\\s+");
+            }
+            csvFile = commandline.getOptionValue("csv");
+            jsonFile = commandline.getOptionValue("json");
+            histLogFile = commandline.getOptionValue("histlog");
+            if (localWorkers + remoteWorkers <= 0) {
+                throw new IllegalArgumentException("At least one worker is needed");
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            System.out.format("%s.%n", e.getMessage());
+            new HelpFormatter().printHelp("LoadCoordinator", options);
+            System.exit(1);
+        }
+    }
+}
@@ -10,131 +10,342 @@
  */
 package io.pravega.turbineheatsensor;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
+/**
+ * Collects throughput and latency statistics. Recording is lock free so that it can be called from any number of
+ * ack callbacks; a dedicated reporter thread merges what has been recorded and prints a window line every
+ * reporting interval. All latencies are recorded in nanoseconds.
+ *
+ * Both the per-window and the cumulative statistics are kept in fixed-size histograms, so memory use does not grow
+ * with the number of events or the length of the run.
+ *
+ * Until the {@link WarmupDetector} declares warm-up over, windows are accumulated into a separate warm-up summary, so
+ * that class loading, JIT compilation and connection setup do not skew the measured interval.
+ *
+ * If a {@link GcMonitor} is attached, every window and summary also reports the client JVM's GC activity over the
+ * same interval, and windows containing a GC pause above a threshold are flagged. If a {@link StageBreakdown} is
+ * attached, every window and summary also breaks the latency down into the stages of the write path. If a
+ * {@link SequenceVerifier} is attached, every window and summary also reports the events found lost, duplicated or
+ * out of order.
+ */
 class PerfStats {
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final String name;
     private final int messageSize;
-    private long windowStartTime;
+    private final long reportingIntervalMs;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final LongAdder bytes = new LongAdder();
+    private final ScheduledExecutorService reporter;
+    private final List<InFlightWindow> inFlightWindows = new CopyOnWriteArrayList<>();
+    private final List<StatsExporter> exporters = new CopyOnWriteArrayList<>();
+    private final WarmupDetector warmup;
+    private GcMonitor gcMonitor;
+    private long gcSpikePauseMs;
+    private StageBreakdown stages;
+    private SequenceVerifier verifier;
+
+    // Only accessed from the reporter thread, or after it has been stopped.
+    private final LatencyHistogram window = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram warmupTotal = new LatencyHistogram();
+    private long totalBytes;
+    private long warmupBytes;
     private long start;
-    private long windowStart;
-    private long[] latencies;
-    private int sampling;
-    private int iteration;
-    private int index;
-    private long count;
-    private long bytes;
-    private int maxLatency;
-    private long totalLatency;
-    private long windowCount;
-    private int windowMaxLatency;
-    private long windowTotalLatency;
-    private long windowBytes;
-    private long reportingInterval;
-
-    public PerfStats(long numRecords, int reportingInterval, int messageSize) {
-        this.start = System.currentTimeMillis();
-        this.windowStartTime = System.currentTimeMillis();
-        this.windowStart = 0;
-        this.index = 0;
-        this.iteration = 0;
-        this.sampling = (int) (numRecords / Math.min(numRecords, 500000));
-        this.latencies = new long[(int) (numRecords / this.sampling)];
-        this.index = 0;
-        this.maxLatency = 0;
-        this.totalLatency = 0;
-        this.windowCount = 0;
-        this.windowMaxLatency = 0;
-        this.windowTotalLatency = 0;
-        this.windowBytes = 0;
-        this.totalLatency = 0;
-        this.reportingInterval = reportingInterval;
+    private long measuredStart;
+    private long windowStartTime;
+    private GcMonitor.Reading gcStart;
+    private GcMonitor.Reading gcMeasuredStart;
+    private GcMonitor.Reading gcWindowStart;
+    private long warmupLongestPauseMs;
+    private long measuredLongestPauseMs;
+
+    public PerfStats(String name, int reportingIntervalMs, int messageSize) {
+        this(name, reportingIntervalMs, messageSize, new WarmupDetector(0, 0, 0, 0));
+    }
+
+    public PerfStats(String name, int reportingIntervalMs, int messageSize, WarmupDetector warmup) {
+        this.name = name;
+        this.warmup = warmup;
+        this.reportingIntervalMs = reportingIntervalMs;
         this.messageSize = messageSize;
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "perf-stats-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    public synchronized void record(int iter, int latencyMicro, int bytes, long time) {
-        this.count++;
-        this.bytes += bytes;
-        this.totalLatency += latencyMicro;
-        this.maxLatency = Math.max(this.maxLatency, latencyMicro);
-        this.windowCount++;
-        this.windowBytes += bytes;
-        this.windowTotalLatency += latencyMicro;
-        this.windowMaxLatency = Math.max(windowMaxLatency, latencyMicro);
-        if (iter % this.sampling == 0) {
-            this.latencies[index] = latencyMicro;
-            this.index++;
-        }
-        /* maybe report the recent perf */
-        if (count - windowStart >= reportingInterval) {
-            printWindow();
-            newWindow(count);
+    /**
+     * Reports the GC activity of every window and summary, flagging windows with a pause of at least spikePauseMs.
+     * Must be called before {@link #start()}.
+     */
+    public void monitorGc(GcMonitor monitor, long spikePauseMs) {
+        this.gcMonitor = monitor;
+        this.gcSpikePauseMs = spikePauseMs;
+    }
+
+    /**
+     * Reports the given per-stage latencies along with every window and summary. Must be called before
+     * {@link #start()}.
+     */
+    public void breakDown(StageBreakdown stageBreakdown) {
+        this.stages = stageBreakdown;
+    }
+
+    /**
+     * Reports the violations found by the given verifier along with every window and summary. Must be called before
+     * {@link #start()}.
+     */
+    public void verify(SequenceVerifier sequenceVerifier) {
+        this.verifier = sequenceVerifier;
+    }
+
+    public void start() {
+        this.start = System.nanoTime();
+        this.windowStartTime = this.start;
+        this.measuredStart = this.start;
+        if (gcMonitor != null) {
+            this.gcStart = gcMonitor.read();
+            this.gcMeasuredStart = gcStart;
+            this.gcWindowStart = gcStart;
         }
+        reporter.scheduleAtFixedRate(this::reportWindow, reportingIntervalMs, reportingIntervalMs,
+                TimeUnit.MILLISECONDS);
     }
 
-    private void printWindow() {
-        long elapsed = System.currentTimeMillis() - windowStartTime;
-        double recsPerSec = 1000.0 * windowCount / (double) elapsed;
-        double mbPerSec = 1000.0 * this.windowBytes / (double) elapsed / (1024.0 * 1024.0);
-        System.out.printf("%d records sent, %.1f records/sec (%.5f MB/sec), %.1f ms avg latency, %.1f max latency.\n",
-                windowCount, recsPerSec, mbPerSec, windowTotalLatency / ((double) windowCount * 1000.0),
-                (double) windowMaxLatency / 1000.0);
-        System.out.printf(" WINDOW: %d, %d, %.1f ,%.5f MB/sec, %.1f, %.1f \n",
-                messageSize, windowCount, recsPerSec, mbPerSec, windowTotalLatency / ((double) windowCount * 1000.0),
-                (double) windowMaxLatency / 1000.0);
+    /**
+     * Includes the given window's in-flight depth in the window reports.
+     */
+    public void track(InFlightWindow inFlightWindow) {
+        inFlightWindows.add(inFlightWindow);
     }
 
-    private void newWindow(long currentNumber) {
-        this.windowStart = currentNumber;
-        this.windowStartTime = System.currentTimeMillis();
-        this.windowCount = 0;
-        this.windowMaxLatency = 0;
-        this.windowTotalLatency = 0;
-        this.windowBytes = 0;
+    /**
+     * Sends every window and the final summary to the given exporter as well as to the console.
+     */
+    public void addExporter(StatsExporter exporter) {
+        exporters.add(exporter);
     }
 
-    public synchronized void printAll() {
-        /*
-        for (int i = 0; i < latencies.length; i++) {
-            System.out.printf("%d %d\n", i, latencies[i]);
+    public void record(long latencyNanos, int bytes) {
+        recorder.record(latencyNanos);
+        this.bytes.add(bytes);
+    }
 
+    private void reportWindow() {
+        long now = System.nanoTime();
+        recorder.drainInto(window);
+        long windowBytes = bytes.sumThenReset();
+        GcMonitor.Activity gc = null;
+        GcMonitor.Reading gcReading = null;
+        if (gcMonitor != null) {
+            gcReading = gcMonitor.read();
+            gc = gcMonitor.between(gcWindowStart, gcReading);
+            gcWindowStart = gcReading;
+        }
+        if (window.getTotalCount() > 0) {
+            StatsSnapshot snapshot = StatsSnapshot.of(StatsSnapshot.WINDOW, name, epochMillis(windowStartTime),
+                    (now - windowStartTime) / NANOS_PER_MS, windowBytes, window, gc, gcSpikePauseMs);
+            printWindow(snapshot);
+            export(snapshot, window);
+        }
+        if (verifier != null) {
+            verifier.drainWindow();
+            if (window.getTotalCount() > 0) {
+                printViolations(false);
+            }
         }
-        */
+        if (stages != null) {
+            stages.drainWindow();
+            if (window.getTotalCount() > 0) {
+                reportStages(StatsSnapshot.STAGE_WINDOW, epochMillis(windowStartTime),
+                        (now - windowStartTime) / NANOS_PER_MS, false);
+            }
+            stages.endWindow(warmup.isDone());
+        }
+        if (warmup.isDone()) {
+            total.add(window);
+            totalBytes += windowBytes;
+            measuredLongestPauseMs = Math.max(measuredLongestPauseMs, gc != null ? gc.getLongestPauseMs() : 0);
+        } else {
+            warmupTotal.add(window);
+            warmupBytes += windowBytes;
+            warmupLongestPauseMs = Math.max(warmupLongestPauseMs, gc != null ? gc.getLongestPauseMs() : 0);
+            double windowRate = 1000.0 * window.getTotalCount() / ((now - windowStartTime) / NANOS_PER_MS);
+            if (warmup.windowDone(now - start, window.getTotalCount(), windowRate)) {
+                measuredStart = now;
+                gcMeasuredStart = gcReading;
+                System.out.printf(" %s warm-up done after %.1f s and %d records, measuring from here on.\n",
+                        name, (now - start) / (NANOS_PER_MS * 1000), warmupTotal.getTotalCount());
+            }
+        }
+        window.reset();
+        windowStartTime = now;
     }
 
-    public synchronized void printTotal() {
-        long elapsed = System.currentTimeMillis() - start;
-        double recsPerSec = 1000.0 * count / (double) elapsed;
-        double mbPerSec = 1000.0 * this.bytes / (double) elapsed / (1024.0 * 1024.0);
-        long[] percs = percentiles(this.latencies, 0.5, 0.95, 0.99, 0.999);
+    private void printWindow(StatsSnapshot s) {
+        System.out.printf("%d records sent, %.1f records/sec (%.5f MB/sec), %.1f ms avg latency, %.1f max latency, " +
+                        "%.1f ms 50th, %.1f ms 99th, %.1f ms 99.9th.\n",
+                s.getCount(), s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(), s.getP50Ms(),
+                s.getP99Ms(), s.getP999Ms());
+        if (!inFlightWindows.isEmpty()) {
+            int inFlight = 0;
+            int peak = 0;
+            for (InFlightWindow inFlightWindow : inFlightWindows) {
+                inFlight += inFlightWindow.getInFlight();
+                peak = Math.max(peak, inFlightWindow.getAndResetPeak());
+            }
+            System.out.printf(" %d writes in flight, at most %d per producer in this window.\n", inFlight, peak);
+        }
+        if (s.getGc() != null) {
+            printGc(s);
+        }
+        System.out.printf(" WINDOW: %d, %d, %.1f ,%.5f MB/sec, %.1f, %.1f, %.1f, %.1f, %.1f \n",
+                messageSize, s.getCount(), s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(),
+                s.getP50Ms(), s.getP99Ms(), s.getP999Ms());
+    }
+
+    private void printGc(StatsSnapshot s) {
+        GcMonitor.Activity gc = s.getGc();
+        double allocated = gc.getAllocatedMbPerSec();
+        System.out.printf(" GC: %d collections, %d ms collecting, longest pause %d ms, %s allocated, %.1f MB heap " +
+                        "used.\n", gc.getCollections(), gc.getCollectionTimeMs(), gc.getLongestPauseMs(),
+                allocated >= 0 ? String.format("%.1f MB/sec", allocated) : "unknown MB/sec", gc.getHeapUsedMb());
+        if (s.isGcSpike()) {
+            System.out.printf(" GC SPIKE: a %d ms client GC pause overlaps this window's %.1f ms 99.9th " +
+                    "percentile and %.1f ms max latency.\n", gc.getLongestPauseMs(), s.getP999Ms(), s.getMaxMs());
+        }
+    }
+
+    /**
+     * Stops the reporter thread and prints the summary over everything recorded since warm-up ended, preceded by the
+     * summary of the warm-up itself if there was one. If warm-up never ended, the whole run is summarized instead.
+     *
+     * @return The summary.
+     */
+    public StatsSnapshot printTotal() throws InterruptedException {
+        reporter.shutdown();
+        reporter.awaitTermination(reportingIntervalMs, TimeUnit.MILLISECONDS);
+        recorder.drainInto(total);
+        totalBytes += bytes.sumThenReset();
+        long end = System.nanoTime();
+        GcMonitor.Reading gcEnd = null;
+        if (gcMonitor != null) {
+            gcEnd = gcMonitor.read();
+            measuredLongestPauseMs = Math.max(measuredLongestPauseMs,
+                    gcMonitor.between(gcWindowStart, gcEnd).getLongestPauseMs());
+        }
+
+        if (!warmup.isDone()) {
+            System.out.printf("%s: warm-up did not end before the run did, summarizing the whole run.\n", name);
+            total.add(warmupTotal);
+            totalBytes += warmupBytes;
+            measuredLongestPauseMs = Math.max(measuredLongestPauseMs, warmupLongestPauseMs);
+        } else if (measuredStart != start) {
+            StatsSnapshot w = StatsSnapshot.of(StatsSnapshot.WARMUP, name, epochMillis(start),
+                    (measuredStart - start) / NANOS_PER_MS, warmupBytes, warmupTotal,
+                    gcActivity(gcStart, gcMeasuredStart, warmupLongestPauseMs), gcSpikePauseMs);
+            System.out.printf("%s warm-up: %d records, %f records/sec (%.5f MB/sec), %.2f ms avg latency, " +
+                            "%.2f ms max latency, %.2f ms 50th, %.2f ms 95th, %.2f ms 99th, %.2f ms 99.9th.\n",
+                    name, w.getCount(), w.getRecordsPerSec(), w.getMbPerSec(), w.getMeanMs(), w.getMaxMs(),
+                    w.getP50Ms(), w.getP95Ms(), w.getP99Ms(), w.getP999Ms());
+            export(w, warmupTotal);
+        }
+
+        long from = warmup.isDone() ? measuredStart : start;
+        GcMonitor.Activity gc = gcActivity(warmup.isDone() ? gcMeasuredStart : gcStart, gcEnd, measuredLongestPauseMs);
+        StatsSnapshot s = StatsSnapshot.of(StatsSnapshot.TOTAL, name, epochMillis(from),
+                (end - from) / NANOS_PER_MS, totalBytes, total, gc, gcSpikePauseMs);
         System.out.printf(
-                "%d records sent, %f records/sec (%.5f MB/sec), %.2f ms avg latency, %.2f ms max " + "latency, %.2f " +
+                "%s: %d records, %f records/sec (%.5f MB/sec), %.2f ms avg latency, %.2f ms max " + "latency, %.2f " +
                         "ms 50th, %.2f ms 95th, %.2f ms 99th, %.2f ms 99.9th.\n",
-                count, recsPerSec, mbPerSec, totalLatency / ((double) count * 1000.0), (double) maxLatency / 1000.0,
-                percs[0] / 1000.0, percs[1] / 1000.0, percs[2] / 1000.0, percs[3] / 1000.0);
+                name, s.getCount(), s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(),
+                s.getP50Ms(), s.getP95Ms(), s.getP99Ms(), s.getP999Ms());
         System.out.printf(
                 " FINAL:, %d, %.5f MB/sec, %.2f, %.2f, %.2f, %.2f, %.2f, %.2f\n",
-                messageSize, mbPerSec, totalLatency / ((double) count * 1000.0), (double) maxLatency / 1000.0,
-                percs[0] / 1000.0, percs[1] / 1000.0, percs[2] / 1000.0, percs[3] / 1000.0);
+                messageSize, s.getMbPerSec(), s.getMeanMs(), s.getMaxMs(), s.getP50Ms(), s.getP95Ms(),
+                s.getP99Ms(), s.getP999Ms());
+        if (gc != null) {
+            printGc(s);
+        }
+        export(s, total);
+        if (stages != null) {
+            stages.finish(!warmup.isDone());
+            reportStages(StatsSnapshot.STAGE_TOTAL, epochMillis(from), (end - from) / NANOS_PER_MS, true);
+        }
+        if (verifier != null) {
+            verifier.finish();
+            printViolations(true);
+        }
+        return s;
     }
 
-    private long[] percentiles(long[] latencies, double... percentiles) {
-        long size = Math.min(count, latencies.length);
-        Arrays.sort(latencies, 0, (int) size);
-        long[] values = new long[percentiles.length];
-        for (int i = 0; i < percentiles.length; i++) {
-            int index = (int) (percentiles[i] * size);
-            values[i] = latencies[index];
+    /**
+     * Prints one line with the number of events of every kind of violation. The totals cover the whole run, warm-up
+     * included.
+     */
+    private void printViolations(boolean totals) {
+        StringBuilder line = new StringBuilder(" VERIFY:");
+        long violations = 0;
+        for (int i = 0; i < SequenceVerifier.VIOLATIONS; i++) {
+            long count = totals ? verifier.getTotal(i) : verifier.getWindow(i);
+            line.append(String.format("%s %d %s", i > 0 ? "," : "", count, SequenceVerifier.name(i)));
+            violations += count;
         }
-        return values;
+        System.out.println(line.append(violations > 0 ? ". VIOLATED." : "."));
     }
 
-    public CompletableFuture<Void> runAndRecordTime(Supplier<CompletableFuture<Void>> fn, long startTime, int length) {
-        int iter = this.iteration++;
-        return fn.get().thenAccept((lmn) -> {
-            record(iter, (int) (System.currentTimeMillis() - startTime) * 1000, length, System.nanoTime());
-        });
+    /**
+     * Prints one line with the latency of every stage and exports a snapshot per stage, named after this stats and
+     * the stage.
+     */
+    private void reportStages(String kind, long startTimeMs, double durationMs, boolean totals) {
+        StringBuilder line = new StringBuilder(" STAGES (avg/50th/99th/99.9th ms):");
+        for (int i = 0; i < StageBreakdown.STAGES; i++) {
+            LatencyHistogram histogram = totals ? stages.getTotal(i) : stages.getWindow(i);
+            StatsSnapshot s = StatsSnapshot.of(kind, name + "/" + StageBreakdown.name(i), startTimeMs, durationMs,
+                    0, histogram);
+            line.append(String.format("%s %s %.3f/%.3f/%.3f/%.3f", i > 0 ? "," : "",
+                    StageBreakdown.name(i), s.getMeanMs(), s.getP50Ms(), s.getP99Ms(), s.getP999Ms()));
+            export(s, histogram);
+        }
+        System.out.println(line.append('.'));
+    }
+
+    private GcMonitor.Activity gcActivity(GcMonitor.Reading from, GcMonitor.Reading to, long longestPauseMs) {
+        if (gcMonitor == null) {
+            return null;
+        }
+        // The pause history may not reach back to the start of a long run, so use the longest window pause instead.
+        return gcMonitor.between(from, to).withLongestPause(longestPauseMs);
+    }
+
+    private void export(StatsSnapshot snapshot, LatencyHistogram histogram) {
+        for (StatsExporter exporter : exporters) {
+            try {
+                exporter.export(snapshot, histogram);
+            } catch (IOException e) {
+                System.err.println("Failed to export " + name + " statistics: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long epochMillis(long nanoTime) {
+        return TimeUnit.NANOSECONDS.toMillis(EpochClock.fromNanoTime(nanoTime));
+    }
 
+    public CompletableFuture<Void> runAndRecordTime(Supplier<CompletableFuture<Void>> fn, long startNanos,
+                                                    int length) {
+        return fn.get().thenAccept((lmn) -> record(System.nanoTime() - startNanos, length));
     }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+/**
+ * Chooses the routing key of every event, and with it the segment the event lands in. Generators are shared by all
+ * the producers, so implementations must be thread safe, and they should not allocate per event.
+ */
+interface RoutingKeyGenerator {
+
+    /**
+     * Returns the number of keys every sensor picks from, 1 if every sensor keeps to its own key.
+     */
+    int keyCount();
+
+    /**
+     * Picks the routing key of the next event of a sensor.
+     *
+     * @return The index of the key, below {@link #keyCount()}.
+     */
+    int nextKeyIndex();
+
+    /**
+     * Returns the routing key with the given index.
+     *
+     * @param index     The index of the key, as returned by {@link #nextKeyIndex()}.
+     * @param sensorKey The sensor's own key, derived from its id.
+     */
+    String key(int index, String sensorKey);
+
+    /**
+     * Formats the given number of distinct keys up front, so that picking one does not allocate.
+     */
+    static String[] keys(int keyCount) {
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key-" + i;
+        }
+        return keys;
+    }
+}
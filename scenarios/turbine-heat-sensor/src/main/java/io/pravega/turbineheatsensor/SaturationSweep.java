@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds the highest load TurbineHeatSensor sustains within a p99 latency SLO, for every combination of producer
+ * count and message size. Each load step is a separate, open-loop, write-only TurbineHeatSensor process whose final
+ * producer summary is read back from its CSV export, so every step starts from a fresh JVM and stream. Stream names
+ * carry the sweep's start time and the step's producer count, size and rate, so no step appends to a stream an
+ * earlier step, or an earlier sweep, has grown or scaled, and every step seals and deletes its streams when it ends.
+ *
+ * A step passes if the 99th percentile latency stays within the SLO and the producers achieve at least
+ * {@link #MIN_ACHIEVED_FRACTION} of the offered rate. In step mode the rate grows by a fixed increment until a step
+ * fails; in binary mode it doubles until a step fails and is then bisected between the last passing and the first
+ * failing rate. The knee of each configuration is its highest passing step.
+ */
+public class SaturationSweep {
+    private static final double MIN_ACHIEVED_FRACTION = 0.95;
+    private static final String TURBINE_SENSOR_CLASS = "io.pravega.turbineheatsensor.TurbineHeatSensor";
+
+    private static String controllerUri = "tcp://127.0.0.1:9090";
+    private static String streamPrefix = "turbineSweep";
+    // Tells the streams of this sweep apart from those of earlier sweeps
+    private static final String SWEEP_ID = Long.toString(System.currentTimeMillis(), 36);
+    private static int[] producerCounts = {20};
+    private static int[] messageSizes = {100};
+    // Per-producer events per second of the first step, the increment in step mode, and the upper bound
+    private static int startRate = 100;
+    private static int rateStep = 100;
+    private static int maxRate = 1000000;
+    // Either "step" or "binary"
+    private static String mode = "binary";
+    // Relative gap between passing and failing rates at which the binary search stops
+    private static double precision = 0.05;
+    private static double sloP99Ms = 50.0;
+    private static int stepSeconds = 30;
+    private static String outputFile = "sweep.csv";
+    private static String[] extraArgs = new String[0];
+
+    public static void main(String[] args) throws Exception {
+        parseCmdLine(args);
+        Path workDir = Files.createTempDirectory("turbine-sweep");
+        System.out.println("Step logs and exports are kept in " + workDir);
+
+        List<Step> knees = new ArrayList<>();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(outputFile),
+                StandardCharsets.UTF_8))) {
+            out.println("producers,size,offered_per_sec,achieved_per_sec,mb_per_sec,p50_ms,p99_ms,p999_ms,passed");
+            for (int producers : producerCounts) {
+                for (int size : messageSizes) {
+                    Step knee = sweep(producers, size, workDir, out);
+                    if (knee != null) {
+                        knees.add(knee);
+                    } else {
+                        System.out.format("producers=%d size=%d: even %d events/sec per producer breaks the SLO%n",
+                                producers, size, startRate);
+                    }
+                }
+            }
+        }
+
+        System.out.format("%nKnee points (p99 SLO %.1f ms), full curve in %s:%n", sloP99Ms, outputFile);
+        System.out.format("%10s %8s %16s %12s %10s%n", "producers", "size", "events/sec", "MB/sec", "p99 ms");
+        for (Step knee : knees) {
+            System.out.format("%10d %8d %16.1f %12.3f %10.2f%n", knee.producers, knee.size, knee.achievedPerSec,
+                    knee.mbPerSec, knee.p99Ms);
+        }
+    }
+
+    /**
+     * Sweeps one configuration, appending every step to the curve, and returns its highest passing step.
+     */
+    private static Step sweep(int producers, int size, Path workDir, PrintWriter out)
+            throws IOException, InterruptedException {
+        Step lastPass = null;
+        Step firstFail = null;
+        int rate = startRate;
+        while (rate <= maxRate) {
+            Step step = runStep(producers, size, rate, workDir, out);
+            if (!step.passed) {
+                firstFail = step;
+                break;
+            }
+            lastPass = step;
+            rate = mode.equals("step") ? rate + rateStep : rate * 2;
+        }
+
+        if (mode.equals("binary") && lastPass != null && firstFail != null) {
+            int low = lastPass.rate;
+            int high = firstFail.rate;
+            while (high - low > Math.max(1, low * precision)) {
+                int middle = low + (high - low) / 2;
+                Step step = runStep(producers, size, middle, workDir, out);
+                if (step.passed) {
+                    lastPass = step;
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+        }
+        return lastPass;
+    }
+
+    private static Step runStep(int producers, int size, int rate, Path workDir, PrintWriter out)
+            throws IOException, InterruptedException {
+        String stepName = String.format("p%d-s%d-r%d", producers, size, rate);
+        Path csv = workDir.resolve(stepName + ".csv");
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), TURBINE_SENSOR_CLASS,
+                "-controller", controllerUri,
+                "-stream", streamPrefix + SWEEP_ID + "P" + producers + "S" + size + "R" + rate,
+                "-producers", Integer.toString(producers),
+                "-size", Integer.toString(size),
+                "-eventspersec", Integer.toString(rate),
+                "-runtime", Integer.toString(stepSeconds),
+                "-openloop", "true",
+                "-writeonly", "true",
+                "-deletestreams", "true",
+                "-csv", csv.toString()));
+        command.addAll(Arrays.asList(extraArgs));
+
+        System.out.format("producers=%d size=%d offering %d events/sec... ", producers, size, producers * rate);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(workDir.toFile(), stepName + ".log"))
+                .start();
+        int exitCode = process.waitFor();
+        Step step = readStep(csv, producers, size, rate);
+        if (exitCode != 0 || step == null) {
+            throw new IOException("Step " + stepName + " failed with exit code " + exitCode + ", see " +
+                    workDir.resolve(stepName + ".log"));
+        }
+        System.out.format("%.1f events/sec, p99 %.2f ms%s%n", step.achievedPerSec, step.p99Ms,
+                step.passed ? "" : ", beyond the SLO");
+        out.format(Locale.ROOT, "%d,%d,%d,%.1f,%.5f,%.3f,%.3f,%.3f,%b%n", producers, size, producers * rate,
+                step.achievedPerSec, step.mbPerSec, step.p50Ms, step.p99Ms, step.p999Ms, step.passed);
+        out.flush();
+        return step;
+    }
+
+    /**
+     * Reads the final producer summary from the CSV export of a step.
+     */
+    private static Step readStep(Path csv, int producers, int size, int rate) throws IOException {
+        if (!Files.exists(csv)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            List<String> columns = Arrays.asList(reader.readLine().split(","));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields[0].equals(StatsSnapshot.TOTAL) && fields[1].equals("Producer")) {
+                    Step step = new Step(producers, size, rate);
+                    step.achievedPerSec = Double.parseDouble(fields[columns.indexOf("records_per_sec")]);
+                    step.mbPerSec = Double.parseDouble(fields[columns.indexOf("mb_per_sec")]);
+                    step.p50Ms = Double.parseDouble(fields[columns.indexOf("p50_ms")]);
+                    step.p99Ms = Double.parseDouble(fields[columns.indexOf("p99_ms")]);
+                    step.p999Ms = Double.parseDouble(fields[columns.indexOf("p999_ms")]);
+                    step.passed = step.p99Ms <= sloP99Ms &&
+                            step.achievedPerSec >= MIN_ACHIEVED_FRACTION * producers * rate;
+                    return step;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] parseList(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static void parseCmdLine(String[] args) {
+        Options options = new Options();
+        options.addOption("controller", true, "controller URI");
+        options.addOption("stream", true, "prefix of the streams created for each configuration");
+        options.addOption("producers", true, "comma separated producer counts to sweep");
+        options.addOption("sizes", true, "comma separated message sizes to sweep");
+        options.addOption("mode", true, "step or binary");
+        options.addOption("startrate", true, "events per second per producer of the first step");
+        options.addOption("step", true, "events per second per producer added at every step in step mode");
+        options.addOption("maxrate", true, "highest events per second per producer to try");
+        options.addOption("precision", true, "relative gap at which the binary search stops, e.g. 0.05");
+        options.addOption("slop99", true, "99th percentile latency SLO in milliseconds");
+        options.addOption("steptime", true, "seconds every step runs for");
+        options.addOption("out", true, "CSV file to write the throughput vs latency curve to");
+        options.addOption("args", true, "extra arguments passed to every TurbineHeatSensor run");
+        options.addOption("help", false, "Help message");
+
+        CommandLineParser parser = new DefaultParser();
+        try {
+            CommandLine commandline = parser.parse(options, args);
+            if (commandline.hasOption("help")) {
+                new HelpFormatter().printHelp("SaturationSweep", options);
+                System.exit(0);
+            }
+            controllerUri = commandline.getOptionValue("controller", controllerUri);
+            streamPrefix = commandline.getOptionValue("stream", streamPrefix);
+            if (commandline.hasOption("producers")) {
+                producerCounts = parseList(commandline.getOptionValue("producers"));
+            }
+            if (commandline.hasOption("sizes")) {
+                messageSizes = parseList(commandline.getOptionValue("sizes"));
+            }
+            mode = commandline.getOptionValue("mode", mode);
+            if (!mode.equals("step") && !mode.equals("binary")) {
+                throw new IllegalArgumentException("Unknown sweep mode: " + mode);
+            }
+            startRate = Integer.parseInt(commandline.getOptionValue("startrate", Integer.toString(startRate)));
+            rateStep = Integer.parseInt(commandline.getOptionValue("step", Integer.toString(rateStep)));
+            maxRate = Integer.parseInt(commandline.getOptionValue("maxrate", Integer.toString(maxRate)));
+            precision = Double.parseDouble(commandline.getOptionValue("precision", Double.toString(precision)));
+            sloP99Ms = Double.parseDouble(commandline.getOptionValue("slop99", Double.toString(sloP99Ms)));
+            stepSeconds = Integer.parseInt(commandline.getOptionValue("steptime", Integer.toString(stepSeconds)));
+            outputFile = commandline.getOptionValue("out", outputFile);
+            if (commandline.hasOption("args") && !commandline.getOptionValue("args").trim().isEmpty()) {
+                extraArgs = commandline.getOptionValue("args").trim().split("\\s+");
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            System.out.format("%s.%n", e.getMessage());
+            new HelpFormatter().printHelp("SaturationSweep", options);
+            System.exit(1);
+        }
+    }
+
+    private static class Step {
+        private final int producers;
+        private final int size;
+        private final int rate;
+        private double achievedPerSec;
+        private double mbPerSec;
+        private double p50Ms;
+        private double p99Ms;
+        private double p999Ms;
+        private boolean passed;
+
+        Step(int producers, int size, int rate) {
+            this.producers = producers;
+            this.size = size;
+            this.rate = rate;
+        }
+    }
+}
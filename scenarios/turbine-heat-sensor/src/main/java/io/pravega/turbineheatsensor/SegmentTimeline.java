@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import io.pravega.client.ClientConfig;
+import io.pravega.client.segment.impl.Segment;
+import io.pravega.client.stream.impl.ControllerImpl;
+import io.pravega.client.stream.impl.ControllerImplConfig;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Samples the active segments of the stream through the controller and reports every split or merge as a scale
+ * event, interleaved with the producer's window reports it receives as a {@link StatsExporter}. For every scale
+ * event it then follows the producer windows until throughput is back to what it was before the event, and reports
+ * how deep the dip went and how long the recovery took.
+ *
+ * Optionally, the segment count of every window and every scale event are also written to a CSV timeline.
+ */
+class SegmentTimeline implements StatsExporter {
+    // How many windows before a scale event make up the throughput it has to recover to
+    private static final int BASELINE_WINDOWS = 5;
+    private static final double RECOVERED_FRACTION = 0.95;
+
+    private final String scope;
+    private final String stream;
+    private final long samplingIntervalMs;
+    private final ScheduledExecutorService executor;
+    private final ControllerImpl controller;
+    private final Writer timeline;
+
+    // Guarded by this.
+    private Set<String> segments = Collections.emptySet();
+    private final double[] recentRates = new double[BASELINE_WINDOWS];
+    private int windows;
+    private final List<ScaleEvent> recovering = new ArrayList<>();
+
+    /**
+     * Creates a new timeline.
+     *
+     * @param controllerUri      The controller to sample the segments from.
+     * @param scope              The scope of the stream.
+     * @param stream             The stream whose segments to sample.
+     * @param samplingIntervalMs How often to sample the segments.
+     * @param timelineFile       The CSV file to write the timeline to, or null not to write one.
+     */
+    SegmentTimeline(URI controllerUri, String scope, String stream, long samplingIntervalMs, Path timelineFile)
+            throws IOException {
+        this.scope = scope;
+        this.stream = stream;
+        this.samplingIntervalMs = samplingIntervalMs;
+        this.executor = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "segment-timeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.controller = new ControllerImpl(ControllerImplConfig.builder()
+                .clientConfig(ClientConfig.builder().controllerURI(controllerUri).build())
+                .build(), executor);
+        if (timelineFile != null) {
+            this.timeline = Files.newBufferedWriter(timelineFile, StandardCharsets.UTF_8);
+            timeline.write("time_ms,kind,segments,records_per_sec,p99_ms,sealed,created\n");
+        } else {
+            this.timeline = null;
+        }
+    }
+
+    void start() {
+        executor.scheduleAtFixedRate(this::sample, 0, samplingIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        long timeMs = TimeUnit.NANOSECONDS.toMillis(EpochClock.nowNanos());
+        controller.getCurrentSegments(scope, stream).whenComplete((current, e) -> {
+            if (e != null) {
+                System.err.println("Failed to sample the segments of " + stream + ": " + e.getMessage());
+            } else {
+                update(timeMs, current.getSegments().stream()
+                        .map(Segment::getScopedName)
+                        .collect(Collectors.toSet()));
+            }
+        });
+    }
+
+    private synchronized void update(long timeMs, Set<String> current) {
+        if (current.equals(segments)) {
+            return;
+        }
+        Set<String> sealed = new TreeSet<>(segments);
+        sealed.removeAll(current);
+        Set<String> created = new TreeSet<>(current);
+        created.removeAll(segments);
+        boolean initial = segments.isEmpty();
+        int before = segments.size();
+        segments = new HashSet<>(current);
+
+        if (initial) {
+            System.out.printf(" SEGMENTS: %d active segments.\n", current.size());
+        } else {
+            System.out.printf(" SCALE: %d -> %d segments at %d, sealed %s, created %s.\n", before, current.size(),
+                    timeMs, shortNames(sealed), shortNames(created));
+            if (windows > 0) {
+                recovering.add(new ScaleEvent(timeMs, before, current.size(), baselineRate()));
+            }
+        }
+        writeRow(String.format(Locale.ROOT, "%d,scale,%d,,,%s,%s\n", timeMs, current.size(),
+                shortNames(sealed), shortNames(created)));
+    }
+
+    @Override
+    public synchronized void export(StatsSnapshot snapshot, LatencyHistogram histogram) {
+        if (!snapshot.getKind().equals(StatsSnapshot.WINDOW)) {
+            return;
+        }
+        long endMs = snapshot.getStartTimeMs() + (long) snapshot.getDurationMs();
+        double rate = snapshot.getRecordsPerSec();
+        writeRow(String.format(Locale.ROOT, "%d,window,%d,%.1f,%.3f,,\n", endMs, segments.size(), rate,
+                snapshot.getP99Ms()));
+
+        for (Iterator<ScaleEvent> it = recovering.iterator(); it.hasNext(); ) {
+            ScaleEvent event = it.next();
+            if (endMs <= event.timeMs) {
+                continue;
+            }
+            event.lowestRate = Math.min(event.lowestRate, rate);
+            event.highestP99Ms = Math.max(event.highestP99Ms, snapshot.getP99Ms());
+            if (snapshot.getStartTimeMs() >= event.timeMs && rate >= RECOVERED_FRACTION * event.baselineRate) {
+                event.print(endMs - event.timeMs);
+                it.remove();
+            }
+        }
+        recentRates[windows++ % BASELINE_WINDOWS] = rate;
+    }
+
+    private double baselineRate() {
+        int count = Math.min(windows, BASELINE_WINDOWS);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += recentRates[i];
+        }
+        return sum / count;
+    }
+
+    private void writeRow(String row) {
+        if (timeline == null) {
+            return;
+        }
+        try {
+            timeline.write(row);
+            timeline.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write the segment timeline: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the scope and stream from the segment names, joining them with spaces so they fit in one CSV field.
+     */
+    private String shortNames(Set<String> names) {
+        String prefix = scope + "/" + stream + "/";
+        return names.stream()
+                .map(name -> name.startsWith(prefix) ? name.substring(prefix.length()) : name)
+                .collect(Collectors.joining(" ", "[", "]"));
+    }
+
+    /**
+     * Stops sampling and reports the scale events the throughput has not recovered from.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        executor.shutdownNow();
+        controller.close();
+        for (ScaleEvent event : recovering) {
+            event.print(-1);
+        }
+        recovering.clear();
+        if (timeline != null) {
+            timeline.close();
+        }
+    }
+
+    private static final class ScaleEvent {
+        private final long timeMs;
+        private final int segmentsBefore;
+        private final int segmentsAfter;
+        private final double baselineRate;
+        private double lowestRate = Double.MAX_VALUE;
+        private double highestP99Ms;
+
+        ScaleEvent(long timeMs, int segmentsBefore, int segmentsAfter, double baselineRate) {
+            this.timeMs = timeMs;
+            this.segmentsBefore = segmentsBefore;
+            this.segmentsAfter = segmentsAfter;
+            this.baselineRate = baselineRate;
+        }
+
+        /**
+         * Prints how the producers fared around this event, given how long they took to recover, or a negative
+         * value if they never did.
+         */
+        void print(long recoveryMs) {
+            double lowest = lowestRate == Double.MAX_VALUE ? baselineRate : lowestRate;
+            System.out.printf(" SCALE %d -> %d at %d: %.1f records/sec before, dipped to %.1f (%.1f%%), " +
+                            "p99 up to %.1f ms, %s.\n",
+                    segmentsBefore, segmentsAfter, timeMs, baselineRate, lowest,
+                    baselineRate > 0 ? 100.0 * (lowest - baselineRate) / baselineRate : 0.0, highestP99Ms,
+                    recoveryMs >= 0 ? "recovered after " + recoveryMs + " ms" : "not recovered by the end of the run");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import io.pravega.client.stream.Serializer;
+
+/**
+ * Defines how sensor readings are turned into events and how the reading side gets the event time back out of them.
+ *
+ * @param <T> The type of the events written to the stream.
+ */
+interface SensorPayloadFormat<T> {
+
+    Serializer<T> getSerializer();
+
+    /**
+     * Encodes a single sensor reading.
+     *
+     * @param timestamp   The simulated time of the reading, in milliseconds since the epoch.
+     * @param sensorId    The id of the sensor.
+     * @param cityId      The index of the city the sensor is located in.
+     * @param city        The name of the city the sensor is located in.
+     * @param temperature The temperature reading.
+     * @param sendTime    The wall clock time at which the event is sent, in nanoseconds since the epoch.
+     * @param keyIndex    The index of the routing key the event is written with.
+     * @param sequence    The number of events the sensor wrote with the same routing key before, or -1 if unknown.
+     * @return The event to write.
+     */
+    T encode(long timestamp, int sensorId, int cityId, String city, double temperature, long sendTime, int keyIndex,
+             long sequence);
+
+    /**
+     * Returns the size of the given event, as accounted in the throughput statistics.
+     */
+    int sizeOf(T payload);
+
+    /**
+     * Tells the format that the writer is done with the given event, so its resources can be reused.
+     */
+    void release(T payload);
+
+    /**
+     * Returns the simulated time of the reading held by the given event, in milliseconds since the epoch.
+     */
+    long decodeTimestamp(T payload);
+
+    /**
+     * Returns the wall clock time at which the given event was sent, in nanoseconds since the epoch.
+     */
+    long decodeSendTime(T payload);
+
+    /**
+     * Returns the id of the sensor that sent the given event.
+     */
+    int decodeSensorId(T payload);
+
+    /**
+     * Returns the index of the routing key the given event was written with.
+     */
+    int decodeKeyIndex(T payload);
+
+    /**
+     * Returns the sequence number of the given event among those its sensor wrote with the same routing key.
+     */
+    long decodeSequence(T payload);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+/**
+ * Routes every event by the id of the sensor that sent it, so each sensor keeps to a single segment.
+ */
+class SensorRoutingKeys implements RoutingKeyGenerator {
+
+    @Override
+    public int keyCount() {
+        return 1;
+    }
+
+    @Override
+    public int nextKeyIndex() {
+        return 0;
+    }
+
+    @Override
+    public String key(int index, String sensorKey) {
+        return sensorKey;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that the events read back are exactly the events written, in order. Producers number the events of every
+ * source, a sensor writing with one routing key, consecutively from 0; as events are written through a single writer
+ * per source, Pravega delivers every source's events in that order. That does not hold for transactions committed
+ * concurrently, which become visible in any order, so the verifier is only used with transactions committed one at
+ * a time.
+ *
+ * For every source only the highest sequence read so far and a bitmap of the {@link #WINDOW} sequences below it are
+ * kept, in primitive arrays, so checking an event takes a few arithmetic operations under one of a fixed set of
+ * striped locks, and memory use only depends on the number of sources. Three kinds of violations are counted:
+ *
+ * <ul>
+ * <li>lost: a sequence still unread when it falls out of the bitmap, or at the end of the run;</li>
+ * <li>duplicated: a sequence read more than once;</li>
+ * <li>out of order: a sequence read after a higher one of the same source. A sequence more than {@link #WINDOW}
+ * behind may also have been counted as lost, or be a duplicate.</li>
+ * </ul>
+ *
+ * The loss of the last events of a source goes unnoticed, as the verifier does not know how many there were.
+ */
+class SequenceVerifier {
+    static final int LOST = 0;
+    static final int DUPLICATED = 1;
+    static final int OUT_OF_ORDER = 2;
+    static final int VIOLATIONS = 3;
+    // Caps the memory used by the verifier at 16 bytes per source.
+    static final int MAX_SOURCES = 1 << 22;
+    private static final String[] NAMES = {"lost", "duplicated", "out of order"};
+    private static final int WINDOW = Long.SIZE;
+    private static final int STRIPES = 64;
+
+    private final long[] highest;
+    // Bit i is set if sequence highest - i has been read.
+    private final long[] seen;
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder[] counters = new LongAdder[VIOLATIONS];
+
+    // Only accessed from the reporter thread of the owning PerfStats, or after it has been stopped.
+    private final long[] window = new long[VIOLATIONS];
+    private final long[] total = new long[VIOLATIONS];
+
+    SequenceVerifier(int sources) {
+        this.highest = new long[sources];
+        this.seen = new long[sources];
+        for (int i = 0; i < sources; i++) {
+            highest[i] = -1;
+            // Nothing comes before sequence 0, so count all the sequences below it as read.
+            seen[i] = -1L;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        for (int i = 0; i < VIOLATIONS; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    static String name(int violation) {
+        return NAMES[violation];
+    }
+
+    /**
+     * Checks one event read back. Events that carry no valid source or sequence are ignored.
+     */
+    void record(int source, long sequence) {
+        if (source < 0 || source >= highest.length || sequence < 0) {
+            return;
+        }
+        synchronized (locks[source % STRIPES]) {
+            long top = highest[source];
+            long bits = seen[source];
+            if (sequence > top) {
+                long shift = sequence - top;
+                long missing;
+                if (shift < WINDOW) {
+                    // The sequences shifted out of the bitmap for good.
+                    missing = shift - Long.bitCount(bits >>> (WINDOW - shift));
+                    bits = (bits << shift) | 1;
+                } else {
+                    missing = WINDOW - Long.bitCount(bits) + shift - WINDOW;
+                    bits = 1;
+                }
+                highest[source] = sequence;
+                seen[source] = bits;
+                if (missing > 0) {
+                    counters[LOST].add(missing);
+                }
+            } else if (top - sequence >= WINDOW) {
+                counters[OUT_OF_ORDER].increment();
+            } else {
+                long bit = 1L << (top - sequence);
+                if ((bits & bit) != 0) {
+                    counters[DUPLICATED].increment();
+                } else {
+                    seen[source] = bits | bit;
+                    counters[OUT_OF_ORDER].increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the violations counted since the previous window into the window counts, and adds them to the totals.
+     */
+    void drainWindow() {
+        for (int i = 0; i < VIOLATIONS; i++) {
+            window[i] = counters[i].sumThenReset();
+            total[i] += window[i];
+        }
+    }
+
+    long getWindow(int violation) {
+        return window[violation];
+    }
+
+    /**
+     * Counts the sequences still missing below the highest one of every source as lost, and adds whatever was
+     * counted after the last window to the totals.
+     */
+    void finish() {
+        for (int source = 0; source < highest.length; source++) {
+            synchronized (locks[source % STRIPES]) {
+                counters[LOST].add(WINDOW - Long.bitCount(seen[source]));
+            }
+        }
+        for (int i = 0; i < VIOLATIONS; i++) {
+            total[i] += counters[i].sumThenReset();
+        }
+    }
+
+    long getTotal(int violation) {
+        return total[violation];
+    }
+}
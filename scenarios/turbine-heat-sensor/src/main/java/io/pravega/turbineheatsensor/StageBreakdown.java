@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import io.pravega.client.stream.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Splits the latency of the write path into stages, each with its own histogram:
+ *
+ * <ul>
+ * <li>build: building the event payload;</li>
+ * <li>serialize: the serializer turning the payload into bytes;</li>
+ * <li>enqueue: the {@code writeEvent} call, which includes serialization and waiting for the writer to accept the
+ * event;</li>
+ * <li>ack: from {@code writeEvent} returning until the event is acknowledged.</li>
+ * </ul>
+ *
+ * Stages are recorded from any thread like {@link PerfStats} latencies, and reported by the {@link PerfStats} they
+ * are attached to.
+ */
+class StageBreakdown {
+    static final int BUILD = 0;
+    static final int SERIALIZE = 1;
+    static final int ENQUEUE = 2;
+    static final int ACK = 3;
+    static final int STAGES = 4;
+    private static final String[] NAMES = {"build", "serialize", "enqueue", "ack"};
+
+    private final LatencyRecorder[] recorders = new LatencyRecorder[STAGES];
+
+    // Only accessed from the reporter thread of the owning PerfStats, or after it has been stopped.
+    private final LatencyHistogram[] window = new LatencyHistogram[STAGES];
+    private final LatencyHistogram[] total = new LatencyHistogram[STAGES];
+    private final LatencyHistogram[] warmup = new LatencyHistogram[STAGES];
+
+    StageBreakdown() {
+        for (int i = 0; i < STAGES; i++) {
+            recorders[i] = new LatencyRecorder();
+            window[i] = new LatencyHistogram();
+            total[i] = new LatencyHistogram();
+            warmup[i] = new LatencyHistogram();
+        }
+    }
+
+    static String name(int stage) {
+        return NAMES[stage];
+    }
+
+    void record(int stage, long latencyNanos) {
+        recorders[stage].record(latencyNanos);
+    }
+
+    /**
+     * Performs the given write, recording how long the call takes to return as the enqueue stage, and how long the
+     * returned future then takes to complete as the ack stage.
+     */
+    CompletableFuture<Void> timeWrite(Supplier<CompletableFuture<Void>> write) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> future = write.get();
+        long enqueued = System.nanoTime();
+        record(ENQUEUE, enqueued - start);
+        return future.whenComplete((v, e) -> record(ACK, System.nanoTime() - enqueued));
+    }
+
+    /**
+     * Wraps the given serializer so that serialization is recorded as its own stage.
+     */
+    <T> Serializer<T> timed(Serializer<T> serializer) {
+        return new Serializer<T>() {
+            @Override
+            public ByteBuffer serialize(T value) {
+                long start = System.nanoTime();
+                ByteBuffer serialized = serializer.serialize(value);
+                record(SERIALIZE, System.nanoTime() - start);
+                return serialized;
+            }
+
+            @Override
+            public T deserialize(ByteBuffer serializedValue) {
+                return serializer.deserialize(serializedValue);
+            }
+        };
+    }
+
+    /**
+     * Moves everything recorded since the previous window into the window histograms.
+     */
+    void drainWindow() {
+        for (int i = 0; i < STAGES; i++) {
+            recorders[i].drainInto(window[i]);
+        }
+    }
+
+    LatencyHistogram getWindow(int stage) {
+        return window[stage];
+    }
+
+    /**
+     * Adds the current window to the measured totals, or to the warm-up if it is not over yet, and clears it.
+     */
+    void endWindow(boolean measured) {
+        for (int i = 0; i < STAGES; i++) {
+            (measured ? total : warmup)[i].add(window[i]);
+            window[i].reset();
+        }
+    }
+
+    /**
+     * Drains whatever was recorded after the last window into the totals, including the warm-up if it never ended.
+     */
+    void finish(boolean includeWarmup) {
+        for (int i = 0; i < STAGES; i++) {
+            recorders[i].drainInto(total[i]);
+            if (includeWarmup) {
+                total[i].add(warmup[i]);
+            }
+        }
+    }
+
+    LatencyHistogram getTotal(int stage) {
+        return total[stage];
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives every window and final summary produced by {@link PerfStats}, to store it in a machine readable form.
+ * Exporters may be shared by several {@link PerfStats} instances, so implementations must be thread safe.
+ */
+interface StatsExporter extends Closeable {
+
+    /**
+     * Exports one window or final summary.
+     *
+     * @param snapshot  The figures of the window or run.
+     * @param histogram The full latency histogram behind the snapshot, in nanoseconds.
+     */
+    void export(StatsSnapshot snapshot, LatencyHistogram histogram) throws IOException;
+}
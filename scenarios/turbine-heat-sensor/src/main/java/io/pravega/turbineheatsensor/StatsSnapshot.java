@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+/**
+ * The throughput and latency figures of one reporting window, or of a whole run, as printed and exported by
+ * {@link PerfStats}. Latencies are in milliseconds.
+ */
+class StatsSnapshot {
+    static final String WINDOW = "window";
+    static final String TOTAL = "total";
+    static final String WARMUP = "warmup";
+    static final String STAGE_WINDOW = "stage-window";
+    static final String STAGE_TOTAL = "stage-total";
+    static final String STREAM_TOTAL = "stream-total";
+
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final String kind;
+    private final String name;
+    private final long startTimeMs;
+    private final double durationMs;
+    private final long count;
+    private final long bytes;
+    private final double meanMs;
+    private final double maxMs;
+    private final double p50Ms;
+    private final double p95Ms;
+    private final double p99Ms;
+    private final double p999Ms;
+    private final GcMonitor.Activity gc;
+    private final boolean gcSpike;
+
+    StatsSnapshot(String kind, String name, long startTimeMs, double durationMs, long count, long bytes,
+                  double meanMs, double maxMs, double p50Ms, double p95Ms, double p99Ms, double p999Ms,
+                  GcMonitor.Activity gc, boolean gcSpike) {
+        this.kind = kind;
+        this.name = name;
+        this.startTimeMs = startTimeMs;
+        this.durationMs = durationMs;
+        this.count = count;
+        this.bytes = bytes;
+        this.meanMs = meanMs;
+        this.maxMs = maxMs;
+        this.p50Ms = p50Ms;
+        this.p95Ms = p95Ms;
+        this.p99Ms = p99Ms;
+        this.p999Ms = p999Ms;
+        this.gc = gc;
+        this.gcSpike = gcSpike;
+    }
+
+    /**
+     * Summarizes the given histogram of latencies, recorded in nanoseconds.
+     */
+    static StatsSnapshot of(String kind, String name, long startTimeMs, double durationMs, long bytes,
+                            LatencyHistogram histogram) {
+        return of(kind, name, startTimeMs, durationMs, bytes, histogram, null, 0);
+    }
+
+    /**
+     * Summarizes the given histogram of latencies, recorded in nanoseconds, along with the GC activity over the same
+     * interval. The snapshot is flagged as a GC spike if the interval contains a pause of at least spikePauseMs.
+     */
+    static StatsSnapshot of(String kind, String name, long startTimeMs, double durationMs, long bytes,
+                            LatencyHistogram histogram, GcMonitor.Activity gc, long spikePauseMs) {
+        long[] percs = histogram.getValuesAtFractions(0.5, 0.95, 0.99, 0.999);
+        boolean gcSpike = gc != null && spikePauseMs > 0 && gc.getLongestPauseMs() >= spikePauseMs;
+        return new StatsSnapshot(kind, name, startTimeMs, durationMs, histogram.getTotalCount(), bytes,
+                histogram.getMean() / NANOS_PER_MS, histogram.getMaxValue() / NANOS_PER_MS,
+                percs[0] / NANOS_PER_MS, percs[1] / NANOS_PER_MS, percs[2] / NANOS_PER_MS, percs[3] / NANOS_PER_MS,
+                gc, gcSpike);
+    }
+
+    String getKind() {
+        return kind;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    double getDurationMs() {
+        return durationMs;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    double getRecordsPerSec() {
+        return durationMs > 0 ? 1000.0 * count / durationMs : 0.0;
+    }
+
+    double getMbPerSec() {
+        return durationMs > 0 ? 1000.0 * bytes / durationMs / (1024.0 * 1024.0) : 0.0;
+    }
+
+    double getMeanMs() {
+        return meanMs;
+    }
+
+    double getMaxMs() {
+        return maxMs;
+    }
+
+    double getP50Ms() {
+        return p50Ms;
+    }
+
+    double getP95Ms() {
+        return p95Ms;
+    }
+
+    double getP99Ms() {
+        return p99Ms;
+    }
+
+    double getP999Ms() {
+        return p999Ms;
+    }
+
+    /**
+     * Returns the client's GC activity over the interval, or null if it was not monitored.
+     */
+    GcMonitor.Activity getGc() {
+        return gc;
+    }
+
+    /**
+     * Returns whether the interval contains a GC pause long enough to explain a latency spike.
+     */
+    boolean isGcSpike() {
+        return gcSpike;
+    }
+}
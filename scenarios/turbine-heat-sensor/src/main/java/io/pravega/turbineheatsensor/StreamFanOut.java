@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+/**
+ * Lays out the streams of a run: streamCount streams, spread round robin over scopeCount scopes, with the sensors
+ * spread over the streams. With a skew of 0 every stream gets the same number of sensors; with a higher skew the
+ * sensors follow a Zipf distribution over the streams, so that a few streams are busy and most are quiet, as with
+ * many tenants of different sizes. The assignment is deterministic, so every run with the same layout puts the same
+ * sensors on the same streams.
+ *
+ * A layout of a single stream in a single scope uses the given scope and stream names as they are; otherwise scopes
+ * and streams are numbered after them.
+ */
+class StreamFanOut {
+    private final String[] scopes;
+    private final String[] streams;
+    private final int[] sensorStreams;
+    private final int[] sensorCounts;
+
+    StreamFanOut(String scopeName, String streamName, int scopeCount, int streamCount, double skew, int sensors) {
+        this.scopes = new String[scopeCount];
+        for (int i = 0; i < scopeCount; i++) {
+            scopes[i] = scopeCount == 1 ? scopeName : scopeName + "-" + i;
+        }
+        this.streams = new String[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            streams[i] = streamCount == 1 ? streamName : streamName + "-" + i;
+        }
+        double[] cumulative = ZipfRoutingKeys.cumulative(streamCount, skew);
+        this.sensorStreams = new int[sensors];
+        this.sensorCounts = new int[streamCount];
+        for (int i = 0; i < sensors; i++) {
+            // Spread the sensors evenly over the quantiles of the distribution.
+            sensorStreams[i] = ZipfRoutingKeys.pick(cumulative, (i + 0.5) / sensors);
+            sensorCounts[sensorStreams[i]]++;
+        }
+    }
+
+    int getScopeCount() {
+        return scopes.length;
+    }
+
+    String getScope(int scopeIndex) {
+        return scopes[scopeIndex];
+    }
+
+    int getStreamCount() {
+        return streams.length;
+    }
+
+    /**
+     * Returns the index of the scope the given stream belongs to.
+     */
+    int getScopeIndex(int stream) {
+        return stream % scopes.length;
+    }
+
+    String getStream(int stream) {
+        return streams[stream];
+    }
+
+    /**
+     * Returns the scoped name of the given stream.
+     */
+    String getScopedName(int stream) {
+        return scopes[getScopeIndex(stream)] + "/" + streams[stream];
+    }
+
+    /**
+     * Returns the index of the stream the given sensor writes to.
+     */
+    int streamOf(int sensorId) {
+        return sensorStreams[sensorId];
+    }
+
+    /**
+     * Returns the number of sensors writing to the given stream.
+     */
+    int getSensorCount(int stream) {
+        return sensorCounts[stream];
+    }
+}
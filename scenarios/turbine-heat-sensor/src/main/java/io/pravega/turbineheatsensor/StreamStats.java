@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the throughput and latency of every stream of a {@link StreamFanOut} over the whole run, next to the
+ * aggregate kept by {@link PerfStats}. Per-stream windows would flood the console with thousands of streams, so only
+ * totals are kept: printed for the slowest streams, along with the spread of throughput over all the streams, and
+ * exported for every stream.
+ *
+ * Every stream with sensors gets a {@link LatencyHistogram} of about 30 KB, updated under the histogram's own lock
+ * rather than through a striped {@link LatencyRecorder}, since a stream only sees the events of its own sensors.
+ */
+class StreamStats {
+    // Caps the memory used at about 30 MB per instance, one of which is kept for the producers and one for the readers.
+    static final int MAX_STREAMS = 1024;
+    private static final int PRINTED_STREAMS = 10;
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final String name;
+    private final StreamFanOut fanOut;
+    private final LatencyHistogram[] histograms;
+    private final long[] bytes;
+    private long start;
+
+    StreamStats(String name, StreamFanOut fanOut) {
+        this.name = name;
+        this.fanOut = fanOut;
+        this.histograms = new LatencyHistogram[fanOut.getStreamCount()];
+        this.bytes = new long[fanOut.getStreamCount()];
+        for (int i = 0; i < histograms.length; i++) {
+            if (fanOut.getSensorCount(i) > 0) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    void start() {
+        this.start = System.nanoTime();
+    }
+
+    void record(int stream, long latencyNanos, int length) {
+        LatencyHistogram histogram = histograms[stream];
+        synchronized (histogram) {
+            histogram.record(latencyNanos);
+            bytes[stream] += length;
+        }
+    }
+
+    /**
+     * Prints the streams with the highest 99th percentile latency and the spread of throughput over the streams, and
+     * exports the summary of every stream.
+     */
+    void printTotal(List<StatsExporter> exporters) {
+        long end = System.nanoTime();
+        long startMs = TimeUnit.NANOSECONDS.toMillis(EpochClock.fromNanoTime(start));
+        double durationMs = (end - start) / NANOS_PER_MS;
+        List<StatsSnapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < histograms.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            if (histogram == null) {
+                continue;
+            }
+            StatsSnapshot s;
+            synchronized (histogram) {
+                s = StatsSnapshot.of(StatsSnapshot.STREAM_TOTAL, name + "/" + fanOut.getScopedName(i), startMs,
+                        durationMs, bytes[i], histogram);
+            }
+            snapshots.add(s);
+            for (StatsExporter exporter : exporters) {
+                try {
+                    exporter.export(s, histogram);
+                } catch (IOException e) {
+                    System.err.println("Failed to export " + s.getName() + " statistics: " + e.getMessage());
+                }
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        snapshots.sort(Comparator.comparingDouble(StatsSnapshot::getRecordsPerSec));
+        System.out.printf("%s: %d streams with sensors, %.1f min, %.1f median, %.1f max records/sec per stream.\n",
+                name, snapshots.size(), snapshots.get(0).getRecordsPerSec(),
+                snapshots.get(snapshots.size() / 2).getRecordsPerSec(),
+                snapshots.get(snapshots.size() - 1).getRecordsPerSec());
+        snapshots.sort(Comparator.comparingDouble(StatsSnapshot::getP99Ms).reversed());
+        if (snapshots.size() > PRINTED_STREAMS) {
+            System.out.printf(" The %d streams with the highest 99th percentile latency:\n", PRINTED_STREAMS);
+        }
+        for (StatsSnapshot s : snapshots.subList(0, Math.min(PRINTED_STREAMS, snapshots.size()))) {
+            System.out.printf(" STREAM %s: %d records, %.1f records/sec (%.5f MB/sec), %.2f ms avg latency, " +
+                            "%.2f ms 50th, %.2f ms 99th, %.2f ms 99.9th.\n",
+                    s.getName(), s.getCount(), s.getRecordsPerSec(), s.getMbPerSec(), s.getMeanMs(), s.getP50Ms(),
+                    s.getP99Ms(), s.getP999Ms());
+        }
+    }
+}
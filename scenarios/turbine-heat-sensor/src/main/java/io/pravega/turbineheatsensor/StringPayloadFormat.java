@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import io.pravega.client.stream.Serializer;
+import io.pravega.client.stream.impl.JavaSerializer;
+
+/**
+ * Encodes every reading as a comma separated line padded with spaces to the message size, written through Java
+ * serialization. The send time, key index and sequence come last so that consumers only interested in the reading
+ * can ignore them.
+ */
+class StringPayloadFormat implements SensorPayloadFormat<String> {
+    private final JavaSerializer<String> serializer = new JavaSerializer<>();
+    private final int messageSize;
+    // The fields of the payload last decoded on each thread, as readers decode several fields of every event.
+    private final ThreadLocal<Fields> lastDecoded = ThreadLocal.withInitial(Fields::new);
+
+    StringPayloadFormat(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    @Override
+    public Serializer<String> getSerializer() {
+        return serializer;
+    }
+
+    @Override
+    public String encode(long timestamp, int sensorId, int cityId, String city, double temperature, long sendTime,
+                         int keyIndex, long sequence) {
+        String val = timestamp + ", " + sensorId + ", " + city + ", " + (int) temperature + ", " + sendTime + ", " +
+                keyIndex + ", " + sequence;
+        return String.format("%-" + messageSize + "s", val);
+    }
+
+    @Override
+    public int sizeOf(String payload) {
+        return payload.length();
+    }
+
+    @Override
+    public void release(String payload) {
+    }
+
+    @Override
+    public long decodeTimestamp(String payload) {
+        return Long.parseLong(field(payload, 0));
+    }
+
+    @Override
+    public long decodeSendTime(String payload) {
+        return Long.parseLong(field(payload, 4));
+    }
+
+    @Override
+    public int decodeSensorId(String payload) {
+        return Integer.parseInt(field(payload, 1));
+    }
+
+    @Override
+    public int decodeKeyIndex(String payload) {
+        return Integer.parseInt(field(payload, 5));
+    }
+
+    @Override
+    public long decodeSequence(String payload) {
+        return Long.parseLong(field(payload, 6));
+    }
+
+    /**
+     * Returns a field of the payload, splitting the payload only the first time one of its fields is asked for.
+     */
+    private String field(String payload, int index) {
+        Fields fields = lastDecoded.get();
+        if (fields.payload != payload) {
+            fields.values = payload.split(",");
+            fields.payload = payload;
+        }
+        return fields.values[index].trim();
+    }
+
+    private static final class Fields {
+        private String payload;
+        private String[] values;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel owned by a single thread. Timeouts are bucketed by the tick in which they expire and kept in
+ * intrusive linked lists, so scheduling and expiring are constant time and allocation free no matter how many
+ * timeouts are pending. Timeouts further away than one rotation of the wheel wait out the extra rotations in place.
+ *
+ * @param <T> The type of the items carried by the timeouts.
+ */
+class TimerWheel<T> {
+    private final long startNanos;
+    private final long tickNanos;
+    private final Timeout<T>[] wheel;
+    private final int mask;
+    private long tick;
+
+    /**
+     * Creates a new wheel.
+     *
+     * @param startNanos The {@link System#nanoTime()} at which the first tick starts.
+     * @param tickNanos  The duration of a tick, which is the resolution at which timeouts fire.
+     * @param size       The number of ticks in one rotation, rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(long startNanos, long tickNanos, int size) {
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.startNanos = startNanos;
+        this.tickNanos = tickNanos;
+        this.wheel = (Timeout<T>[]) new Timeout<?>[slots];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Schedules the given timeout to fire at the first tick boundary at or after the given deadline. Deadlines in the
+     * past fire in the next tick.
+     */
+    void schedule(Timeout<T> timeout, long deadlineNanos) {
+        long ticks = Math.max(tick, (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        int slot = (int) (ticks & mask);
+        timeout.deadline = deadlineNanos;
+        timeout.rounds = (ticks - tick) / wheel.length;
+        timeout.next = wheel[slot];
+        wheel[slot] = timeout;
+    }
+
+    /**
+     * Waits until the current tick has started.
+     */
+    void awaitTick() throws InterruptedException {
+        long due = startNanos + tick * tickNanos;
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Removes all the timeouts due in the current tick, moves on to the next tick and then hands the expired timeouts
+     * to the given action. The action may reschedule the timeouts it is given.
+     */
+    void expireTick(Consumer<Timeout<T>> action) {
+        int slot = (int) (tick & mask);
+        Timeout<T> expired = null;
+        Timeout<T> remaining = null;
+        Timeout<T> timeout = wheel[slot];
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout.next = remaining;
+                remaining = timeout;
+            } else {
+                timeout.next = expired;
+                expired = timeout;
+            }
+            timeout = next;
+        }
+        wheel[slot] = remaining;
+        tick++;
+
+        while (expired != null) {
+            Timeout<T> next = expired.next;
+            expired.next = null;
+            action.accept(expired);
+            expired = next;
+        }
+    }
+
+    static final class Timeout<T> {
+        final T item;
+        private long deadline;
+        private long rounds;
+        private Timeout<T> next;
+
+        Timeout(T item) {
+            this.item = item;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+    }
+}
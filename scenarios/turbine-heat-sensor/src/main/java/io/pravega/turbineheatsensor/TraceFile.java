@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a recorded trace of events through memory mapping, so that traces much larger than the heap can be replayed
+ * and payloads are handed out as views of the mapped file rather than copied. The file holds an 8 byte magic number
+ * followed by records, all big endian:
+ *
+ * <pre>
+ * | timestamp in microseconds (long) | key length (unsigned short) | payload length (int) | key (UTF-8) | payload |
+ * </pre>
+ *
+ * The file is mapped one region of up to {@link #MAX_REGION_SIZE} bytes at a time, each starting at a record, so
+ * files of any size can be read. Not thread safe; every replaying thread opens its own instance.
+ */
+class TraceFile implements Closeable {
+    static final long MAGIC = 0x5054524143453031L; // "PTRACE01"
+    static final int RECORD_HEADER_SIZE = Long.BYTES + Short.BYTES + Integer.BYTES;
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer region;
+    private long regionStart;
+    // File offset of the next record.
+    private long position = Long.BYTES;
+
+    private long timestampMicros;
+    private int keyOffset;
+    private int keyLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    TraceFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        if (size < Long.BYTES || map(0).getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not a trace file");
+        }
+    }
+
+    private MappedByteBuffer map(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_REGION_SIZE, size - start));
+        regionStart = start;
+        return region;
+    }
+
+    /**
+     * Moves on to the next record.
+     *
+     * @return False if there are no more records.
+     */
+    boolean next() throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return false;
+        }
+        if (position + RECORD_HEADER_SIZE > regionStart + region.capacity()) {
+            map(position);
+        }
+        int offset = (int) (position - regionStart);
+        timestampMicros = region.getLong(offset);
+        keyLength = region.getShort(offset + Long.BYTES) & 0xFFFF;
+        payloadLength = region.getInt(offset + Long.BYTES + Short.BYTES);
+        long recordSize = (long) RECORD_HEADER_SIZE + keyLength + payloadLength;
+        if (payloadLength < 0 || position + recordSize > size) {
+            throw new IOException("Truncated or corrupt trace record at offset " + position);
+        }
+        if (position + recordSize > regionStart + region.capacity()) {
+            if (recordSize > MAX_REGION_SIZE) {
+                throw new IOException("Trace record at offset " + position + " is too large");
+            }
+            map(position);
+            offset = 0;
+        }
+        keyOffset = offset + RECORD_HEADER_SIZE;
+        payloadOffset = keyOffset + keyLength;
+        position += recordSize;
+        return true;
+    }
+
+    long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * Returns a hash of the current record's key, computed from its bytes without decoding it.
+     */
+    int keyHash() {
+        int hash = 0;
+        for (int i = 0; i < keyLength; i++) {
+            hash = 31 * hash + region.get(keyOffset + i);
+        }
+        return hash;
+    }
+
+    String getKey() {
+        byte[] key = new byte[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+            key[i] = region.get(keyOffset + i);
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the current record's payload as a read-only view of the mapped file. The view stays valid after moving
+     * on to other records, for as long as it is referenced.
+     */
+    ByteBuffer getPayload() {
+        ByteBuffer payload = region.duplicate();
+        payload.limit(payloadOffset + payloadLength).position(payloadOffset);
+        return payload.slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
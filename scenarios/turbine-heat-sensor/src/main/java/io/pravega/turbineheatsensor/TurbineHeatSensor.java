@@ -14,18 +14,26 @@ import io.pravega.client.ClientFactory;
 import io.pravega.client.admin.ReaderGroupManager;
 import io.pravega.client.admin.StreamManager;
 import io.pravega.client.stream.*;
-import io.pravega.client.stream.impl.JavaSerializer;
 import org.apache.commons.cli.*;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 public class TurbineHeatSensor {
 
@@ -35,25 +43,135 @@ public class TurbineHeatSensor {
     private static PerfStats produceStats, consumeStats;
     private static String controllerUri = "tcp://127.0.0.1:9090";
     private static int messageSize = 100;
+    // How sensor readings are encoded into events, either "string" or "binary"
+    private static String payloadType = "string";
+    private static SensorPayloadFormat<Object> payloadFormat;
+    // Break the write latency down into the build, serialize, enqueue and ack stages
+    private static boolean stageBreakdown = false;
+    private static StageBreakdown stages;
+    // How routing keys are chosen: "sensor" (one key per sensor), "uniform", "zipf" or "hot"
+    private static String keyDistribution = "sensor";
+    // How many distinct keys the uniform, zipf and hot distributions use
+    private static int keyCount = 1000;
+    // Skew of the zipf distribution, 0 being uniform
+    private static double zipfSkew = 1.0;
+    // Fraction of the events sent to the single hot key of the hot distribution
+    private static double hotFraction = 1.0;
+    private static RoutingKeyGenerator routingKeys;
+    // Verify that every event is read back exactly once and in order, unless transactions are committed concurrently
+    private static boolean verifySequences = true;
+    private static SequenceVerifier sequenceVerifier;
+    // Events sent before this run, left in the stream by earlier runs, are skipped by the readers
+    private static long runStartNanos;
     private static String streamName = DEFAULT_STREAM_NAME;
     private static String scopeName = DEFAULT_SCOPE_NAME;
+    // Number of scopes and of streams the sensors are spread over, and the skew of the spread
+    private static int scopeCount = 1;
+    private static int streamCount = 1;
+    private static double streamSkew = 0;
+    private static StreamFanOut fanOut;
+    private static ClientFactory[] scopeFactories;
+    private static StreamStats produceStreamStats, consumeStreamStats;
+    // Seal and delete the streams once the run is over
+    private static boolean deleteStreams = false;
 
     private static StreamManager streamManager;
     private static ReaderGroupManager readerGroupManager;
 
     private static boolean onlyWrite = false;
+    // How many readers consume the stream concurrently, within a single reader group
+    private static int readerCount = 1;
+    private static volatile boolean producersDone = false;
     private static boolean blocking = false;
+    // Maximum number of unacknowledged writes per producer, 0 for no limit
+    private static int maxOutstanding = 0;
+    // Pace events at their intended send times and measure latency from those times
+    private static boolean openLoop = false;
+    private static long benchmarkStartNanos;
     // How many producers should we run concurrently
     private static int producerCount = 20;
+    // How many segments the stream has, defaults to the number of producers
+    private static int segmentCount = -1;
+    // Scaling policy of the stream: "fixed", or auto-scaling "events" (by event rate) or "bytes" (by data rate)
+    private static String scaling = "fixed";
+    // Target rate per segment of the auto-scaling policies, in events/sec or KB/sec
+    private static int scaleRate = 1000;
+    // Number of segments a hot segment splits into
+    private static int scaleFactor = 2;
+    // How many sensors to simulate with the event-loop engine, 0 to run one thread per producer instead
+    private static int sensorCount = 0;
+    // How many threads drive the simulated sensors in the event-loop engine
+    private static int driverCount = Runtime.getRuntime().availableProcessors();
+    // How many writers the simulated sensors share in the event-loop engine
+    private static int writerCount = driverCount;
     // How many events each producer has to produce per seconds
     private static int eventsPerSec = 40;
-    // How long it needs to run
+    // How long it needs to run, 0 to run until stopped
     private static int runtimeSec = 10;
+    // When to stop, regardless of the runtime
+    private static Instant deadline = null;
+    private static volatile boolean stopRequested = false;
     // Should producers use Transaction or not
     private static boolean isTransaction = false;
-    private static int reportingInterval = 200;
+    // How many events go into each transaction
+    private static int txnEvents = 100;
+    // How long, in milliseconds, a transaction may stay open before it is committed, 0 for no limit
+    private static int txnCommitMs = 0;
+    // How many transactions per producer may be committing while the next one is being written
+    private static int txnPipeline = 4;
+    private static PerfStats commitStats;
+    private static ExecutorService commitExecutor;
+    // How often, in milliseconds, the stats reporter prints a window
+    private static int reportingInterval = 1000;
+    // Minimum warm-up, in seconds and in events, reported separately from the measured interval
+    private static int warmupSec = 0;
+    private static long warmupEvents = 0;
+    // Relative throughput deviation within which windows count as steady, 0 not to wait for steady state
+    private static double steadyTolerance = 0;
+    // How many consecutive windows must be steady before measuring starts
+    private static int steadyWindows = 3;
+    // Flag windows overlapping a client GC pause of at least this many milliseconds, 0 not to monitor GC
+    private static int gcSpikeMs = 20;
+    private static GcMonitor gcMonitor;
+    // Files to export every window and the final summaries to, as CSV, JSON lines and histogram logs
+    private static String csvFile = null;
+    private static String jsonFile = null;
+    private static String histLogFile = null;
+    private static final List<StatsExporter> exporters = new ArrayList<>();
+    // host:port of the LoadCoordinator this process is a worker of
+    private static String coordinatorAddress = null;
+    private static CoordinatorClient coordinator;
+    // File to write the timeline of segment counts and scale events to
+    private static String timelineFile = null;
+    private static SegmentTimeline segmentTimeline;
+    // Recorded trace to replay instead of simulating sensors
+    private static String traceFile = null;
+    // Replay speed relative to the recorded timestamps, 0 to replay as fast as possible
+    private static double traceSpeed = 1.0;
+    // Records queued per replaying producer, ahead of their time
+    private static final int TRACE_QUEUE_SIZE = 1024;
+    // Number of events written before the readers start from the head of the stream, 0 to read the tail only
+    private static long backlogEvents = 0;
+    private static PerfStats backlogStats, catchupStats;
+    private static volatile StatsSnapshot catchupTotal;
+    private static CountDownLatch backlogWritten;
+    private static final CountDownLatch tailStarted = new CountDownLatch(1);
+    private static final AtomicLong backlogSent = new AtomicLong();
+    private static AtomicLong backlogRemaining;
+    // Wall clock times, in nanoseconds since the epoch, at which writing the backlog started and ended
+    private static long backlogStartNanos, backlogEndNanos;
 
     private static final long DEFAULT_TXN_TIMEOUT_MS = 30000L;
+    private static final long TXN_STATUS_POLL_MS = 5;
+    // How long a signal waits for the benchmark to wind down and print its totals
+    private static final long SHUTDOWN_TIMEOUT_SEC = 60;
+    // Resolution at which the event-loop engine fires sensor events
+    private static final long DRIVER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DRIVER_WHEEL_SIZE = 1024;
+    // Events the sensor drivers skipped as their writer's in-flight window was full
+    private static final LongAdder skippedEvents = new LongAdder();
+    // Time the workers' threads get to start before the first open-loop event is due
+    private static final long START_LEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
 
     public static void main(String[] args) throws Exception {
@@ -74,14 +192,50 @@ public class TurbineHeatSensor {
                 "Salt Lake City", "Montpelier", "Richmond", "Olympia", "Charleston", "Madison", "Cheyenne"};
 
         parseCmdLine(args);
+        payloadFormat = createPayloadFormat();
+        routingKeys = createRoutingKeys();
+        createExporters();
+        if ( coordinator != null ) {
+            // Workers of a coordinated run must not read or verify each other's events.
+            streamName = streamName + "-w" + coordinator.getWorkerIndex();
+        }
 
-        System.out.println("\nTurbineHeatSensor is running "+ producerCount + " simulators each ingesting " +
-                eventsPerSec + " temperature data per second for " + runtimeSec + " seconds " +
-                (isTransaction ? "via transactional mode" : " via non-transactional mode. The controller end point " +
-                        "is " + controllerUri));
+        int simulatorCount = sensorCount > 0 ? sensorCount : producerCount;
+        fanOut = new StreamFanOut(scopeName, streamName, scopeCount, streamCount, streamSkew, simulatorCount);
+        if ( traceFile != null ) {
+            System.out.println("\nTurbineHeatSensor is replaying " + traceFile + " through " + producerCount +
+                    " producers " + (traceSpeed > 0 ? "at " + traceSpeed + "x the recorded rate" :
+                    "as fast as possible"));
+        } else {
+            System.out.println("\nTurbineHeatSensor is running "+ simulatorCount + " simulators each ingesting " +
+                    eventsPerSec + " temperature data per second " +
+                    (runtimeSec > 0 ? "for " + runtimeSec + " seconds " : "until stopped ") +
+                    (deadline != null ? "or until " + deadline + " " : "") +
+                    (sensorCount > 0 ? "on " + driverCount + " threads sharing " + writerCount + " writers " : "") +
+                    (streamCount > 1 ? "over " + streamCount + " streams in " + scopeCount + " scopes " : "") +
+                    (isTransaction ? "via transactional mode" : " via non-transactional mode. The controller end " +
+                            "point is " + controllerUri));
+        }
+
+        // Stop producing on SIGINT/SIGTERM or at the deadline, and give main the chance to print the totals.
+        CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopRequested = true;
+            try {
+                finished.await(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor();
+        if ( deadline != null ) {
+            deadlineTimer.schedule(() -> {
+                stopRequested = true;
+            }, Math.max(0, Duration.between(Instant.now(), deadline).toMillis()), TimeUnit.MILLISECONDS);
+        }
 
         // Initialize executor
-        ExecutorService executor = Executors.newFixedThreadPool(producerCount + 10);
+        ExecutorService executor = Executors.newFixedThreadPool((sensorCount > 0 ? driverCount : producerCount) + 10);
 
         URI controllerUri;
         ClientFactory clientFactory;
@@ -92,74 +246,548 @@ public class TurbineHeatSensor {
             readerGroupManager = ReaderGroupManager.withScope(scopeName, controllerUri);
 
             streamManager.createScope(scopeName);
+            scopeFactories = new ClientFactory[scopeCount];
+            for (int i = 0; i < scopeCount; i++) {
+                scopeFactories[i] = fanOut.getScope(i).equals(scopeName) ? clientFactory :
+                        ClientFactory.withScope(fanOut.getScope(i), controllerUri);
+            }
 
-            ScalingPolicy policy = ScalingPolicy.fixed(producerCount);
-            StreamConfiguration config = StreamConfiguration.builder()
-                    .scope(scopeName)
-                    .streamName(streamName)
-                    .scalingPolicy(policy)
-                    .build();
-            streamManager.createStream(scopeName, streamName, config);
+            // Spread the segments over the streams, unless the number of segments per stream is given.
+            ScalingPolicy policy = createScalingPolicy(segmentCount > 0 ? segmentCount :
+                    Math.max(1, producerCount / streamCount));
+            createStreams(policy);
         }
         catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
 
-        produceStats = new PerfStats(producerCount * eventsPerSec * runtimeSec, reportingInterval, messageSize);
+        if ( coordinator != null ) {
+            // Start in lockstep with the other workers.
+            long startMs = coordinator.awaitStart();
+            Thread.sleep(Math.max(0, startMs - System.currentTimeMillis()));
+        }
+
+        produceStats = createStats("Producer");
+        if ( stageBreakdown ) {
+            stages = new StageBreakdown();
+            produceStats.breakDown(stages);
+        }
+        // Follow the segments of auto-scaling streams, and of any stream whose timeline is asked for.
+        if ( !scaling.equals("fixed") || timelineFile != null ) {
+            segmentTimeline = new SegmentTimeline(controllerUri, fanOut.getScope(fanOut.getScopeIndex(0)),
+                    fanOut.getStream(0), reportingInterval,
+                    timelineFile != null ? Paths.get(timelineFile) : null);
+            produceStats.addExporter(segmentTimeline);
+            segmentTimeline.start();
+        }
+        if ( streamCount > 1 && streamCount <= StreamStats.MAX_STREAMS ) {
+            produceStreamStats = new StreamStats("Producer", fanOut);
+        } else if ( streamCount > 1 ) {
+            System.out.println("Not keeping per-stream statistics of more than " + StreamStats.MAX_STREAMS +
+                    " streams");
+        }
+        if ( isTransaction ) {
+            commitStats = createStats("Commit");
+            commitStats.start();
+            commitExecutor = Executors.newCachedThreadPool();
+        }
 
+        ExecutorService readerExecutor = Executors.newFixedThreadPool(Math.max(1, readerCount));
+        runStartNanos = EpochClock.nowNanos();
         if ( !onlyWrite ) {
-            consumeStats = new PerfStats(producerCount * eventsPerSec * runtimeSec, reportingInterval, messageSize);
-            SensorReader reader = new SensorReader(producerCount * eventsPerSec * runtimeSec, clientFactory);
-            executor.execute(reader);
+            consumeStats = createStats("Consumer");
+            long sources = (long) simulatorCount * routingKeys.keyCount();
+            if ( verifySequences && isTransaction && txnPipeline > 1 ) {
+                // Transactions committed concurrently become visible in any order, even those of one sensor.
+                System.out.println("Not verifying the events read: transactions committed " + txnPipeline +
+                        " at a time are read out of order, use -txnpipeline 1 to verify them");
+            } else if ( verifySequences && sources <= SequenceVerifier.MAX_SOURCES ) {
+                sequenceVerifier = new SequenceVerifier((int) sources);
+                consumeStats.verify(sequenceVerifier);
+            } else if ( verifySequences ) {
+                System.out.println("Not verifying the events read: " + sources + " sensor and key pairs are more " +
+                        "than the " + SequenceVerifier.MAX_SOURCES + " the verifier tracks");
+            }
+            if ( backlogEvents == 0 ) {
+                startReaders(readerExecutor, clientFactory, simulatorCount, 0);
+            }
+        }
+        if ( backlogEvents > 0 ) {
+            backlogStats = createStats("Backlog", new WarmupDetector(0, 0, 0, 0));
+            backlogWritten = new CountDownLatch(producerCount);
+            backlogStartNanos = EpochClock.nowNanos();
+            backlogStats.start();
         }
         /* Create producerCount number of threads to simulate sensors. */
         Instant startEventTime = Instant.EPOCH.plus(8, ChronoUnit.HOURS); // sunrise
-        for (int i = 0; i < producerCount; i++) {
+        List<EventStreamWriter<Object>> sharedWriters = new ArrayList<>();
+        List<Runnable> workers = new ArrayList<>();
+        if ( sensorCount > 0 ) {
+            createSensorDrivers(workers, locations, startEventTime, sharedWriters);
+        }
+        if ( traceFile != null ) {
+            List<BlockingQueue<TraceRecord>> queues = new ArrayList<>();
+            for (int i = 0; i < producerCount; i++) {
+                TraceReplayer replayer = new TraceReplayer();
+                queues.add(replayer.queue);
+                workers.add(replayer);
+            }
+            workers.add(new TraceScanner(queues));
+        }
+        for (int i = 0; sensorCount == 0 && traceFile == null && i < producerCount; i++) {
             double baseTemperature = locations[i % locations.length].length() * 10;
-            TemperatureSensor sensor =
-                    new TemperatureSensor(i, locations[i % locations.length], baseTemperature, 20, startEventTime);
+            TemperatureSensor sensor = new TemperatureSensor(i, i % locations.length, locations[i % locations.length],
+                    baseTemperature, 20, startEventTime, sequenceKeys());
             TemperatureSensors worker;
             if ( isTransaction ) {
                 worker = new TransactionTemperatureSensors(sensor, eventsPerSec, runtimeSec,
-                        isTransaction, clientFactory);
+                        isTransaction);
             } else {
                 worker = new TemperatureSensors(sensor, eventsPerSec, runtimeSec,
-                        isTransaction, clientFactory);
+                        isTransaction);
             }
-            executor.execute(worker);
+            workers.add(worker);
+        }
+        // Only start the clock once every writer exists, so that creating them does not show up as open-loop latency.
+        benchmarkStartNanos = System.nanoTime() + START_LEAD_NANOS;
+        // The producers are measured from then on, so that their throughput covers the paced run only; in catch-up
+        // mode they are measured once the backlog is written.
+        if ( backlogEvents == 0 ) {
+            startProducerStats();
+        }
+        workers.forEach(executor::execute);
+        if ( backlogEvents > 0 ) {
+            startCatchUp(readerExecutor, clientFactory);
         }
 
         executor.shutdown();
         // Wait until all threads are finished.
-        executor.awaitTermination(1, TimeUnit.HOURS);
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        deadlineTimer.shutdownNow();
+        sharedWriters.forEach(EventStreamWriter::close);
 
         System.out.println("\nFinished all producers");
-        produceStats.printAll();
+        if ( skippedEvents.sum() > 0 ) {
+            System.out.println("Sensor drivers skipped " + skippedEvents.sum() + " events, finding the in-flight " +
+                    "window of their writer full");
+        }
+        producersDone = true;
+        readerExecutor.shutdown();
+        readerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
         produceStats.printTotal();
+        if ( produceStreamStats != null ) {
+            produceStreamStats.printTotal(exporters);
+        }
+        if ( segmentTimeline != null ) {
+            segmentTimeline.close();
+        }
+        if ( isTransaction ) {
+            commitExecutor.shutdown();
+            commitStats.printTotal();
+        }
         if ( !onlyWrite ) {
-            consumeStats.printTotal();
+            StatsSnapshot tail = consumeStats.printTotal();
+            if ( consumeStreamStats != null ) {
+                consumeStreamStats.printTotal(exporters);
+            }
+            if ( catchupStats != null ) {
+                printCatchUp(tail);
+            }
+        }
+        for (StatsExporter exporter : exporters) {
+            exporter.close();
+        }
+        if ( deleteStreams ) {
+            deleteStreams();
+        }
+        for (ClientFactory factory : scopeFactories) {
+            if ( factory != clientFactory ) {
+                factory.close();
+            }
         }
         clientFactory.close();
 //        ZipKinTracer.getTracer().close();
+        finished.countDown();
         System.exit(0);
     }
 
+    /**
+     * Creates the scopes and streams of the fan-out, timing every stream creation.
+     */
+    private static void createStreams(ScalingPolicy policy) {
+        for (int i = 0; i < scopeCount; i++) {
+            if ( !fanOut.getScope(i).equals(scopeName) ) {
+                streamManager.createScope(fanOut.getScope(i));
+            }
+        }
+        LatencyHistogram creation = new LatencyHistogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < streamCount; i++) {
+            String scope = fanOut.getScope(fanOut.getScopeIndex(i));
+            StreamConfiguration config = StreamConfiguration.builder()
+                    .scope(scope)
+                    .streamName(fanOut.getStream(i))
+                    .scalingPolicy(policy)
+                    .build();
+            long streamStart = System.nanoTime();
+            streamManager.createStream(scope, fanOut.getStream(i), config);
+            creation.record(System.nanoTime() - streamStart);
+        }
+        long end = System.nanoTime();
+        StatsSnapshot s = StatsSnapshot.of(StatsSnapshot.TOTAL, "StreamCreation",
+                TimeUnit.NANOSECONDS.toMillis(EpochClock.fromNanoTime(start)), (end - start) / 1000000.0, 0,
+                creation);
+        System.out.printf("Created %d streams in %d scopes in %.1f s (%.1f streams/sec), %.2f ms avg, %.2f ms 50th, " +
+                        "%.2f ms 99th, %.2f ms max per stream.\n", s.getCount(), scopeCount, s.getDurationMs() / 1000,
+                s.getRecordsPerSec(), s.getMeanMs(), s.getP50Ms(), s.getP99Ms(), s.getMaxMs());
+        // Setup is not part of the coordinated run, whose workers have not been started yet.
+        for (StatsExporter exporter : exporters) {
+            if ( exporter == coordinator ) {
+                continue;
+            }
+            try {
+                exporter.export(s, creation);
+            } catch (IOException e) {
+                System.err.println("Failed to export the stream creation statistics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Seals and deletes the streams of the fan-out.
+     */
+    private static void deleteStreams() {
+        for (int i = 0; i < streamCount; i++) {
+            String scope = fanOut.getScope(fanOut.getScopeIndex(i));
+            try {
+                streamManager.sealStream(scope, fanOut.getStream(i));
+                streamManager.deleteStream(scope, fanOut.getStream(i));
+            } catch (RuntimeException e) {
+                System.err.println("Failed to delete stream " + scope + "/" + fanOut.getStream(i) + ": " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    private static void startProducerStats() {
+        produceStats.start();
+        if ( produceStreamStats != null ) {
+            produceStreamStats.start();
+        }
+    }
+
+    /**
+     * Creates a writer to the given stream of the fan-out.
+     */
+    private static <T> EventStreamWriter<T> createWriter(int stream, Serializer<T> serializer) {
+        EventWriterConfig eventWriterConfig = EventWriterConfig.builder()
+                .transactionTimeoutTime(DEFAULT_TXN_TIMEOUT_MS)
+                .build();
+        return scopeFactories[fanOut.getScopeIndex(stream)].createEventWriter(fanOut.getStream(stream), serializer,
+                eventWriterConfig);
+    }
+
+    /**
+     * Starts the readers of a new reader group, which read the stream from its head.
+     *
+     * @param simulators The number of sensors producing events.
+     * @param backlog    The number of events already written, which the readers have to read on top of those the
+     *                   sensors are about to write.
+     */
+    private static void startReaders(ExecutorService readerExecutor, ClientFactory clientFactory, int simulators,
+                                     long backlog) {
+        consumeStats.start();
+        if ( produceStreamStats != null ) {
+            consumeStreamStats = new StreamStats("Consumer", fanOut);
+            consumeStreamStats.start();
+        }
+        AtomicLong remainingEvents = new AtomicLong(runtimeSec > 0 ?
+                backlog + (long) simulators * eventsPerSec * runtimeSec : Long.MAX_VALUE);
+        for (SensorReader reader : SensorReader.createReaders(readerCount, remainingEvents, clientFactory)) {
+            readerExecutor.execute(reader);
+        }
+    }
+
+    /**
+     * Waits for the producers to write the backlog, then starts the readers from the head of the stream and lets the
+     * producers carry on at their configured rate, so that the readers catch up on the backlog while the tail grows.
+     * Events read from the backlog are measured as the catch-up, and events written afterwards as tail reads.
+     */
+    private static void startCatchUp(ExecutorService readerExecutor, ClientFactory clientFactory)
+            throws InterruptedException {
+        backlogWritten.await();
+        backlogEndNanos = EpochClock.nowNanos();
+        System.out.println("\nWrote a backlog of " + backlogSent.get() + " events");
+        backlogStats.printTotal();
+
+        benchmarkStartNanos = System.nanoTime() + START_LEAD_NANOS;
+        startProducerStats();
+        if ( !onlyWrite ) {
+            catchupStats = createStats("Catch-up", new WarmupDetector(0, 0, 0, 0));
+            catchupStats.start();
+            backlogRemaining = new AtomicLong(backlogSent.get());
+            startReaders(readerExecutor, clientFactory, producerCount, backlogSent.get());
+        }
+        tailStarted.countDown();
+    }
+
+    /**
+     * Ends the catch-up once the readers have read the whole backlog.
+     */
+    private static void caughtUp() {
+        System.out.println("\nReaders caught up with the backlog");
+        try {
+            catchupTotal = catchupStats.printTotal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compares how fast the readers read the backlog with how fast they read the tail.
+     */
+    private static void printCatchUp(StatsSnapshot tail) throws InterruptedException {
+        if ( catchupTotal == null ) {
+            System.out.println("Readers did not catch up with the backlog before the run ended");
+            catchupTotal = catchupStats.printTotal();
+        }
+        StatsSnapshot c = catchupTotal;
+        System.out.printf(" CATCH-UP: %.1f records/sec (%.5f MB/sec) reading the backlog in %.1f s, " +
+                        "%.1f records/sec (%.5f MB/sec) reading the tail meanwhile, %.2fx the tail throughput.\n",
+                c.getRecordsPerSec(), c.getMbPerSec(), c.getDurationMs() / 1000, tail.getRecordsPerSec(),
+                tail.getMbPerSec(), tail.getMbPerSec() > 0 ? c.getMbPerSec() / tail.getMbPerSec() : 0);
+    }
+
+    /**
+     * Spreads sensorCount simulated sensors over driverCount event-loop threads, added to the given workers, with every
+     * sensor writing through one of writerCount shared writers.
+     */
+    private static void createSensorDrivers(List<Runnable> workers, String[] locations, Instant startEventTime,
+                                            List<EventStreamWriter<Object>> writers) {
+        // With several streams, every stream gets a writer of its own.
+        int writersToCreate = streamCount > 1 ? streamCount : writerCount;
+        List<InFlightWindow> windows = new ArrayList<>();
+        for (int i = 0; i < writersToCreate; i++) {
+            writers.add(createWriter(streamCount > 1 ? i : 0, writerSerializer()));
+            InFlightWindow window = new InFlightWindow(maxOutstanding);
+            produceStats.track(window);
+            windows.add(window);
+        }
+
+        SensorDriver[] drivers = new SensorDriver[Math.min(driverCount, sensorCount)];
+        for (int i = 0; i < drivers.length; i++) {
+            drivers[i] = new SensorDriver();
+        }
+        for (int i = 0; i < sensorCount; i++) {
+            double baseTemperature = locations[i % locations.length].length() * 10;
+            TemperatureSensor sensor = new TemperatureSensor(i, i % locations.length, locations[i % locations.length],
+                    baseTemperature, 20, startEventTime, sequenceKeys());
+            int writer = streamCount > 1 ? fanOut.streamOf(i) : i % writerCount;
+            drivers[i % drivers.length].add(sensor, writers.get(writer), windows.get(writer));
+        }
+        Collections.addAll(workers, drivers);
+    }
+
+    private static void createExporters() throws IOException {
+        if ( csvFile != null ) {
+            exporters.add(new CsvStatsExporter(Paths.get(csvFile)));
+        }
+        if ( jsonFile != null ) {
+            exporters.add(new JsonStatsExporter(Paths.get(jsonFile)));
+        }
+        if ( histLogFile != null ) {
+            exporters.add(new HistogramLogExporter(Paths.get(histLogFile)));
+        }
+        if ( coordinatorAddress != null ) {
+            coordinator = new CoordinatorClient(coordinatorAddress);
+            exporters.add(coordinator);
+        }
+    }
+
+    private static PerfStats createStats(String name) {
+        return createStats(name,
+                new WarmupDetector(TimeUnit.SECONDS.toMillis(warmupSec), warmupEvents, steadyTolerance, steadyWindows));
+    }
+
+    private static PerfStats createStats(String name, WarmupDetector warmup) {
+        PerfStats stats = new PerfStats(name, reportingInterval, messageSize, warmup);
+        exporters.forEach(stats::addExporter);
+        if ( gcSpikeMs > 0 ) {
+            if ( gcMonitor == null ) {
+                gcMonitor = new GcMonitor();
+            }
+            stats.monitorGc(gcMonitor, gcSpikeMs);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns how many events a sensor sends over the given runtime, or practically unlimited if it is zero.
+     */
+    private static long eventsToSend(int seconds, int eventsPerSec) {
+        return seconds > 0 ? (long) seconds * eventsPerSec : Long.MAX_VALUE;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SensorPayloadFormat<Object> createPayloadFormat() {
+        switch (payloadType) {
+            case "string":
+                return (SensorPayloadFormat<Object>) (SensorPayloadFormat<?>) new StringPayloadFormat(messageSize);
+            case "binary":
+                return (SensorPayloadFormat<Object>) (SensorPayloadFormat<?>) new BinaryPayloadFormat(messageSize);
+            default:
+                throw new IllegalArgumentException("Unknown payload type: " + payloadType);
+        }
+    }
+
+    private static RoutingKeyGenerator createRoutingKeys() {
+        switch (keyDistribution) {
+            case "sensor":
+                return new SensorRoutingKeys();
+            case "uniform":
+                return new UniformRoutingKeys(keyCount);
+            case "zipf":
+                return new ZipfRoutingKeys(keyCount, zipfSkew);
+            case "hot":
+                return new HotKeyRoutingKeys(keyCount, hotFraction);
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + keyDistribution);
+        }
+    }
+
+    private static ScalingPolicy createScalingPolicy(int segments) {
+        switch (scaling) {
+            case "fixed":
+                return ScalingPolicy.fixed(segments);
+            case "events":
+                return ScalingPolicy.byEventRate(scaleRate, scaleFactor, segments);
+            case "bytes":
+                return ScalingPolicy.byDataRate(scaleRate, scaleFactor, segments);
+            default:
+                throw new IllegalArgumentException("Unknown scaling policy: " + scaling);
+        }
+    }
+
+    /**
+     * Returns how many routing keys every sensor numbers its events for, 0 if events are not numbered as they are not
+     * verified.
+     */
+    private static int sequenceKeys() {
+        return sequenceVerifier != null ? routingKeys.keyCount() : 0;
+    }
+
+    /**
+     * Builds the payload of the next event from the given sensor, to be written with the given routing key at the
+     * given {@link System#nanoTime()}.
+     */
+    private static Object nextPayload(TemperatureSensor sensor, int keyIndex, long sendNanos) {
+        long buildStart = stages != null ? System.nanoTime() : 0;
+        SensorEvent event = sensor.next();
+        Object payload = payloadFormat.encode(event.getTimestamp().toEpochMilli(), sensor.getSensorId(),
+                sensor.getCityId(), sensor.getCity(), event.getTemperature(), EpochClock.fromNanoTime(sendNanos),
+                keyIndex, sensor.nextSequence(keyIndex));
+        if ( stages != null ) {
+            stages.record(StageBreakdown.BUILD, System.nanoTime() - buildStart);
+        }
+        return payload;
+    }
+
+    /**
+     * Performs the given write, timing its enqueue and ack stages if the latency is broken down.
+     */
+    private static CompletableFuture<Void> write(Supplier<CompletableFuture<Void>> write) {
+        return stages != null ? stages.timeWrite(write) : write.get();
+    }
+
+    /**
+     * Returns the serializer for the writers, timing serialization if the latency is broken down.
+     */
+    private static Serializer<Object> writerSerializer() {
+        return stages != null ? stages.timed(payloadFormat.getSerializer()) : payloadFormat.getSerializer();
+    }
+
+    /**
+     * Parses a backlog volume, either a number of events or a number of bytes with a KB, MB or GB suffix, which is
+     * divided into events of the message size.
+     */
+    private static long parseBacklog(String volume) {
+        String value = volume.trim().toUpperCase();
+        String[] suffixes = {"KB", "MB", "GB"};
+        for (int i = 0; i < suffixes.length; i++) {
+            if ( value.endsWith(suffixes[i]) ) {
+                double bytes = Double.parseDouble(value.substring(0, value.length() - 2).trim()) *
+                        (1L << (10 * (i + 1)));
+                return (long) (bytes / messageSize);
+            }
+        }
+        return Long.parseLong(value);
+    }
+
     private static void parseCmdLine(String[] args) {
         // create Options object
         Options options = new Options();
 
         options.addOption("controller", true, "controller URI");
         options.addOption("producers", true, "number of producers");
+        options.addOption("segments", true, "number of stream segments, defaults to the number of producers");
+        options.addOption("scaling", true, "stream scaling policy: fixed, events or bytes");
+        options.addOption("scalerate", true, "target events/sec or KB/sec per segment of the auto-scaling policies");
+        options.addOption("scalefactor", true, "number of segments a hot segment splits into");
+        options.addOption("keys", true, "routing key distribution: sensor, uniform, zipf or hot");
+        options.addOption("keycount", true, "number of distinct keys of the uniform, zipf and hot distributions");
+        options.addOption("zipfskew", true, "skew of the zipf key distribution");
+        options.addOption("hotfraction", true, "fraction of the events sent to the hot key");
+        options.addOption("sensors", true, "number of sensors to simulate on a few event-loop threads instead of " +
+                "running one thread per producer");
+        options.addOption("drivers", true, "number of event-loop threads driving the simulated sensors");
+        options.addOption("writers", true, "number of writers shared by the simulated sensors");
         options.addOption("eventspersec", true, "number events per sec");
-        options.addOption("runtime", true, "number of seconds the code runs");
+        options.addOption("runtime", true, "number of seconds the code runs, 0 to run until stopped");
+        options.addOption("deadline", true, "instant at which to stop, e.g. 2018-01-01T08:00:00Z");
         options.addOption("transaction", true, "Producers use transactions or not");
+        options.addOption("txnevents", true, "number of events per transaction");
+        options.addOption("txncommitms", true, "milliseconds after which an open transaction is committed even " +
+                "if it is not full, 0 for no limit");
+        options.addOption("txnpipeline", true, "number of transactions per producer that may be committing while " +
+                "the next one is written");
         options.addOption("size", true, "Size of each message");
+        options.addOption("payload", true, "Payload encoding, string or binary");
         options.addOption("stream", true, "Stream name");
         options.addOption("writeonly", true, "Just produce vs read after produce");
+        options.addOption("readers", true, "number of readers in the reader group");
         options.addOption("blocking", true, "Block for each ack");
+        options.addOption("maxoutstanding", true, "Maximum number of unacknowledged writes per producer " +
+                "(0 for no limit)");
+        options.addOption("openloop", true, "Pace events at a constant rate and measure latency from the " +
+                "intended send time");
 //        options.addOption("zipkin", true, "Enable zipkin trace");
-        options.addOption("reporting", true, "Reporting internval");
-
+        options.addOption("reporting", true, "Reporting interval in milliseconds");
+        options.addOption("warmup", true, "Minimum seconds of warm-up, reported separately from the measurement");
+        options.addOption("warmupevents", true, "Minimum number of events of warm-up");
+        options.addOption("steadystate", true, "Keep warming up until window throughput is steady within this " +
+                "many percent, 0 to disable");
+        options.addOption("steadywindows", true, "Number of consecutive steady windows that end warm-up");
+        options.addOption("stages", true, "Break the write latency down into the build, serialize, enqueue " +
+                "and ack stages");
+        options.addOption("gcspikems", true, "Flag windows overlapping a client GC pause of at least this many " +
+                "milliseconds, 0 not to report GC activity");
+        options.addOption("csv", true, "File to export every window and the final summaries to as CSV");
+        options.addOption("json", true, "File to export every window and the final summaries to as JSON lines");
+        options.addOption("histlog", true, "File to save the latency histogram of every window to");
+        options.addOption("coordinator", true, "host:port of the load coordinator to run as a worker of");
+        options.addOption("timeline", true, "File to write the segment count of every window and the scale " +
+                "events to as CSV");
+
+        options.addOption("verify", true, "Check that every event is read back exactly once and in order");
+        options.addOption("scopes", true, "number of scopes the streams are spread over");
+        options.addOption("streams", true, "number of streams the sensors are spread over");
+        options.addOption("streamskew", true, "Zipf skew of the spread of sensors over the streams, 0 for even");
+        options.addOption("deletestreams", true, "Seal and delete the streams once the run is over");
+        options.addOption("backlog", true, "Events, or bytes with a KB, MB or GB suffix, to write before reading " +
+                "from the head of the stream to measure catching up");
+        options.addOption("trace", true, "Trace file to replay instead of simulating sensors");
+        options.addOption("tracespeed", true, "Replay speed relative to the trace timestamps, 0 for as fast as " +
+                "possible");
         options.addOption("help", false, "Help message");
 
         CommandLineParser parser = new BasicParser();
@@ -181,6 +809,50 @@ public class TurbineHeatSensor {
                     producerCount = Integer.parseInt(commandline.getOptionValue("producers"));
                 }
 
+                if (commandline.hasOption("segments")) {
+                    segmentCount = Integer.parseInt(commandline.getOptionValue("segments"));
+                }
+
+                if (commandline.hasOption("scaling")) {
+                    scaling = commandline.getOptionValue("scaling");
+                }
+
+                if (commandline.hasOption("scalerate")) {
+                    scaleRate = Integer.parseInt(commandline.getOptionValue("scalerate"));
+                }
+
+                if (commandline.hasOption("scalefactor")) {
+                    scaleFactor = Integer.parseInt(commandline.getOptionValue("scalefactor"));
+                }
+
+                if (commandline.hasOption("keys")) {
+                    keyDistribution = commandline.getOptionValue("keys");
+                }
+
+                if (commandline.hasOption("keycount")) {
+                    keyCount = Integer.parseInt(commandline.getOptionValue("keycount"));
+                }
+
+                if (commandline.hasOption("zipfskew")) {
+                    zipfSkew = Double.parseDouble(commandline.getOptionValue("zipfskew"));
+                }
+
+                if (commandline.hasOption("hotfraction")) {
+                    hotFraction = Double.parseDouble(commandline.getOptionValue("hotfraction"));
+                }
+
+                if (commandline.hasOption("sensors")) {
+                    sensorCount = Integer.parseInt(commandline.getOptionValue("sensors"));
+                }
+
+                if (commandline.hasOption("drivers")) {
+                    driverCount = Integer.parseInt(commandline.getOptionValue("drivers"));
+                }
+
+                if (commandline.hasOption("writers")) {
+                    writerCount = Integer.parseInt(commandline.getOptionValue("writers"));
+                }
+
                 if (commandline.hasOption("eventspersec")) {
                     eventsPerSec = Integer.parseInt(commandline.getOptionValue("eventspersec"));
                 }
@@ -189,14 +861,34 @@ public class TurbineHeatSensor {
                     runtimeSec = Integer.parseInt(commandline.getOptionValue("runtime"));
                 }
 
+                if (commandline.hasOption("deadline")) {
+                    deadline = Instant.parse(commandline.getOptionValue("deadline"));
+                }
+
                 if (commandline.hasOption("transaction")) {
                     isTransaction = Boolean.parseBoolean(commandline.getOptionValue("transaction"));
                 }
 
+                if (commandline.hasOption("txnevents")) {
+                    txnEvents = Integer.parseInt(commandline.getOptionValue("txnevents"));
+                }
+
+                if (commandline.hasOption("txncommitms")) {
+                    txnCommitMs = Integer.parseInt(commandline.getOptionValue("txncommitms"));
+                }
+
+                if (commandline.hasOption("txnpipeline")) {
+                    txnPipeline = Integer.parseInt(commandline.getOptionValue("txnpipeline"));
+                }
+
                 if (commandline.hasOption("size")) {
                     messageSize = Integer.parseInt(commandline.getOptionValue("size"));
                 }
 
+                if (commandline.hasOption("payload")) {
+                    payloadType = commandline.getOptionValue("payload");
+                }
+
                 if (commandline.hasOption("stream")) {
                     streamName = commandline.getOptionValue("stream");
                 }
@@ -204,13 +896,117 @@ public class TurbineHeatSensor {
                 if (commandline.hasOption("writeonly")) {
                     onlyWrite = Boolean.parseBoolean(commandline.getOptionValue("writeonly"));
                 }
+                if (commandline.hasOption("readers")) {
+                    readerCount = Integer.parseInt(commandline.getOptionValue("readers"));
+                }
                 if (commandline.hasOption("blocking")) {
                     blocking = Boolean.parseBoolean(commandline.getOptionValue("blocking"));
                 }
 
+                if (commandline.hasOption("maxoutstanding")) {
+                    maxOutstanding = Integer.parseInt(commandline.getOptionValue("maxoutstanding"));
+                }
+
+                if (commandline.hasOption("openloop")) {
+                    openLoop = Boolean.parseBoolean(commandline.getOptionValue("openloop"));
+                }
+
                 if (commandline.hasOption("reporting")) {
                     reportingInterval = Integer.parseInt(commandline.getOptionValue("reporting"));
                 }
+
+                if (commandline.hasOption("warmup")) {
+                    warmupSec = Integer.parseInt(commandline.getOptionValue("warmup"));
+                }
+
+                if (commandline.hasOption("warmupevents")) {
+                    warmupEvents = Long.parseLong(commandline.getOptionValue("warmupevents"));
+                }
+
+                if (commandline.hasOption("steadystate")) {
+                    steadyTolerance = Double.parseDouble(commandline.getOptionValue("steadystate")) / 100.0;
+                }
+
+                if (commandline.hasOption("steadywindows")) {
+                    steadyWindows = Integer.parseInt(commandline.getOptionValue("steadywindows"));
+                }
+
+                if (commandline.hasOption("stages")) {
+                    stageBreakdown = Boolean.parseBoolean(commandline.getOptionValue("stages"));
+                }
+
+                if (commandline.hasOption("gcspikems")) {
+                    gcSpikeMs = Integer.parseInt(commandline.getOptionValue("gcspikems"));
+                }
+
+                if (commandline.hasOption("csv")) {
+                    csvFile = commandline.getOptionValue("csv");
+                }
+
+                if (commandline.hasOption("json")) {
+                    jsonFile = commandline.getOptionValue("json");
+                }
+
+                if (commandline.hasOption("histlog")) {
+                    histLogFile = commandline.getOptionValue("histlog");
+                }
+
+                if (commandline.hasOption("coordinator")) {
+                    coordinatorAddress = commandline.getOptionValue("coordinator");
+                }
+
+                if (commandline.hasOption("timeline")) {
+                    timelineFile = commandline.getOptionValue("timeline");
+                }
+
+                if (commandline.hasOption("verify")) {
+                    verifySequences = Boolean.parseBoolean(commandline.getOptionValue("verify"));
+                }
+
+                if (commandline.hasOption("scopes")) {
+                    scopeCount = Integer.parseInt(commandline.getOptionValue("scopes"));
+                }
+
+                if (commandline.hasOption("streams")) {
+                    streamCount = Integer.parseInt(commandline.getOptionValue("streams"));
+                }
+
+                if (commandline.hasOption("streamskew")) {
+                    streamSkew = Double.parseDouble(commandline.getOptionValue("streamskew"));
+                }
+
+                if (commandline.hasOption("deletestreams")) {
+                    deleteStreams = Boolean.parseBoolean(commandline.getOptionValue("deletestreams"));
+                }
+
+                if (commandline.hasOption("backlog")) {
+                    backlogEvents = parseBacklog(commandline.getOptionValue("backlog"));
+                    if ( sensorCount > 0 || isTransaction || commandline.hasOption("trace") ) {
+                        throw new IllegalArgumentException("A backlog can only be written by plain producers");
+                    }
+                }
+
+                if (commandline.hasOption("trace")) {
+                    traceFile = commandline.getOptionValue("trace");
+                    // Recorded payloads carry no send time for the readers to measure latency from.
+                    if ( !onlyWrite ) {
+                        System.out.println("Replaying a trace only writes, ignoring -writeonly false");
+                        onlyWrite = true;
+                    }
+                }
+
+                if (commandline.hasOption("tracespeed")) {
+                    traceSpeed = Double.parseDouble(commandline.getOptionValue("tracespeed"));
+                }
+
+                // Sensor drivers and trace replay write plain events only.
+                if ( isTransaction && (sensorCount > 0 || traceFile != null) ) {
+                    throw new IllegalArgumentException("Transactions can only be written by plain producers");
+                }
+                // A producer cannot commit a transaction without room for at least one commit in progress.
+                if ( txnPipeline < 1 ) {
+                    throw new IllegalArgumentException("-txnpipeline must be at least 1");
+                }
             }
         } catch (Exception nfe) {
             nfe.printStackTrace();
@@ -224,28 +1020,46 @@ public class TurbineHeatSensor {
     private static class TemperatureSensor implements Iterator<SensorEvent> {
 
         private final int sensorId;
+        private final int cityId;
         private final String city;
         private final double bias;
         private final double magnitude;
         private final Instant startTime;
         private long offset;
+        // The next sequence number of every routing key
+        private final long[] sequences;
 
-        public TemperatureSensor(int sensorId, String city, double bias, double magnitude, Instant startTime) {
+        public TemperatureSensor(int sensorId, int cityId, String city, double bias, double magnitude,
+                                 Instant startTime, int sequenceKeys) {
             this.sensorId = sensorId;
+            this.cityId = cityId;
             this.city = city;
             this.bias = bias;
             this.magnitude = magnitude;
             this.startTime = startTime;
+            this.sequences = new long[sequenceKeys];
         }
 
         public int getSensorId() {
             return sensorId;
         }
 
+        public int getCityId() {
+            return cityId;
+        }
+
         public String getCity() {
             return city;
         }
 
+        /**
+         * Returns the sequence number of the sensor's next event with the given routing key, or -1 if events are not
+         * numbered.
+         */
+        public long nextSequence(int keyIndex) {
+            return sequences.length > 0 ? sequences[keyIndex]++ : -1;
+        }
+
         @Override
         public boolean hasNext() {
             return true;
@@ -283,186 +1097,598 @@ public class TurbineHeatSensor {
 
     private static class TemperatureSensors implements Runnable {
 
-        private final JavaSerializer<String> SERIALIZER = new JavaSerializer<>();
-
-        final EventStreamWriter<String> producer;
+        final EventStreamWriter<Object> producer;
         private final TemperatureSensor sensor;
+        private final String routingKey;
         private final int eventsPerSec;
         private final int secondsToRun;
         private final boolean isTransaction;
+        private final InFlightWindow inFlight;
+        private final int stream;
 
-        TemperatureSensors(TemperatureSensor sensor, int eventsPerSec, int secondsToRun, boolean isTransaction,
-                           ClientFactory factory) {
+        TemperatureSensors(TemperatureSensor sensor, int eventsPerSec, int secondsToRun, boolean isTransaction) {
             this.sensor = sensor;
+            this.routingKey = Integer.toString(sensor.getSensorId());
             this.eventsPerSec = eventsPerSec;
             this.secondsToRun = secondsToRun;
             this.isTransaction = isTransaction;
+            this.stream = fanOut.streamOf(sensor.getSensorId());
 
-            EventWriterConfig eventWriterConfig =  EventWriterConfig.builder()
-                    .transactionTimeoutTime(DEFAULT_TXN_TIMEOUT_MS)
-                    .build();
-            this.producer = factory.createEventWriter(streamName, SERIALIZER, eventWriterConfig);
-
+            this.producer = createWriter(stream, writerSerializer());
+            this.inFlight = new InFlightWindow(maxOutstanding);
+            produceStats.track(inFlight);
         }
 
         /**
          * This function will be executed in a loop and time behavior is measured.
          * @return A function which takes String key and data and returns a future object.
          */
-        BiFunction<String, String, Future> sendFunction() {
+        BiFunction<String, Object, CompletableFuture<Void>> sendFunction() {
             return  ( key, data) -> producer.writeEvent(key, data);
         }
 
-        public static <T> CompletableFuture<T> makeCompletableFuture(Future<T> future) {
-            return CompletableFuture.supplyAsync(() -> {
-                try {
-                    return future.get();
-                } catch (InterruptedException|ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
-
         /**
          * Executes the given method over the producer with configured settings.
          * @param fn The function to execute.
          */
-        void runLoop(BiFunction<String, String, Future> fn) {
+        void runLoop(BiFunction<String, Object, CompletableFuture<Void>> fn) {
+            Future<Void> retFuture = null;
+            try {
+                if ( backlogEvents > 0 ) {
+                    fillBacklog(fn);
+                }
+                if ( openLoop ) {
+                    retFuture = runOpenLoop(fn);
+                } else {
+                    retFuture = runClosedLoop(fn);
+                }
+                finish();
+            } catch (InterruptedException e) {
+                // log exception
+                System.exit(1);
+            }
+            producer.close();
+            try {
+                //Wait for the last packet to get acked
+                if ( retFuture != null ) {
+                    retFuture.get();
+                }
+            } catch (InterruptedException | ExecutionException e ) {
+                e.printStackTrace();
+            }
+        }
 
-            int producerId = sensor.getSensorId();
-            String city = sensor.getCity();
+        /**
+         * Called once all the events have been sent, before the writer is closed.
+         */
+        void finish() throws InterruptedException {
+        }
 
+        /**
+         * Writes this producer's share of the backlog as fast as the writer takes it and waits for it to be
+         * acknowledged, then waits for the other producers to write theirs and for the readers to start.
+         */
+        private void fillBacklog(BiFunction<String, Object, CompletableFuture<Void>> fn) throws InterruptedException {
+            long share = backlogEvents / producerCount +
+                    (sensor.getSensorId() < backlogEvents % producerCount ? 1 : 0);
             Future<Void> retFuture = null;
-            for (int i = 0; i < secondsToRun; i++) {
-                int currentEventsPerSec = 0;
+            for (long i = 0; i < share && !stopRequested; i++) {
+                retFuture = sendEvent(fn, System.nanoTime(), backlogStats);
+                backlogSent.incrementAndGet();
+            }
+            try {
+                if ( retFuture != null ) {
+                    retFuture.get();
+                }
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+            backlogWritten.countDown();
+            tailStarted.await();
+        }
 
+        /**
+         * Sends eventsPerSec events back to back at the start of every second, then sleeps for the rest of it.
+         * Latency is measured from the moment each event is actually sent.
+         */
+        private Future<Void> runClosedLoop(BiFunction<String, Object, CompletableFuture<Void>> fn)
+                throws InterruptedException {
+            Future<Void> retFuture = null;
+            for (int i = 0; (secondsToRun == 0 || i < secondsToRun) && !stopRequested; i++) {
                 long loopStartTime = System.currentTimeMillis();
-                while ( currentEventsPerSec < eventsPerSec) {
-                    currentEventsPerSec++;
-
-                    // Construct event payload
-                    SensorEvent event = sensor.next();
-                    String val = event.getTimestamp().toEpochMilli() + ", " + producerId + ", " + city + ", " + (int) event.getTemperature();
-                    String payload = String.format("%-" + messageSize + "s", val);
-                    // event ingestion
-                    long now = System.currentTimeMillis();
-                    retFuture = produceStats.runAndRecordTime(() -> {
-                                return this.makeCompletableFuture(fn.apply(Integer.toString(producerId),
-                                        payload));
-                            },
-                            now,
-                            payload.length());
-                    //If it is a blocking call, wait for the ack
-                    if ( blocking ) {
-                        try {
-                            retFuture.get();
-                        } catch (InterruptedException  | ExecutionException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
+                for (int currentEventsPerSec = 0; currentEventsPerSec < eventsPerSec; currentEventsPerSec++) {
+                    retFuture = sendEvent(fn, System.nanoTime(), produceStats);
                 }
                 long timeSpent = System.currentTimeMillis() - loopStartTime;
                 // wait for next event
+                //There is no need for sleep for blocking calls.
+                if ( !blocking && timeSpent < 1000 ) {
+                    Thread.sleep(1000 - timeSpent);
+                }
+            }
+            return retFuture;
+        }
+
+        /**
+         * Schedules every event at its intended time, spread evenly over each second, and measures latency from that
+         * intended time rather than from the moment the event was actually sent. If the writer falls behind, the
+         * time events spend queued behind it shows up as latency instead of lowering the offered rate.
+         */
+        private Future<Void> runOpenLoop(BiFunction<String, Object, CompletableFuture<Void>> fn)
+                throws InterruptedException {
+            double phase = (double) sensor.getSensorId() / producerCount;
+            EventPacer pacer = new EventPacer(eventsPerSec, benchmarkStartNanos, phase);
+            Future<Void> retFuture = null;
+            for (long i = eventsToSend(secondsToRun, eventsPerSec); i > 0 && !stopRequested; i--) {
+                retFuture = sendEvent(fn, pacer.awaitNext(), produceStats);
+            }
+            return retFuture;
+        }
+
+        /**
+         * Builds the next sensor event, sends it and records its latency relative to the given start time in the given
+         * stats.
+         */
+        private Future<Void> sendEvent(BiFunction<String, Object, CompletableFuture<Void>> fn, long startNanos,
+                                       PerfStats stats) throws InterruptedException {
+            // Construct event payload
+            int keyIndex = routingKeys.nextKeyIndex();
+            Object payload = nextPayload(sensor, keyIndex, startNanos);
+            int size = payloadFormat.sizeOf(payload);
+            // event ingestion, waiting first for room in the in-flight window
+            inFlight.acquire();
+            Future<Void> retFuture = stats.runAndRecordTime(
+                    () -> write(() -> fn.apply(routingKeys.key(keyIndex, routingKey), payload)),
+                    startNanos,
+                    size)
+                    .whenComplete((v, e) -> {
+                        inFlight.release();
+                        if ( produceStreamStats != null && e == null ) {
+                            produceStreamStats.record(stream, System.nanoTime() - startNanos, size);
+                        }
+                        // A transaction holds on to its events until it is committed.
+                        if ( !isTransaction ) {
+                            payloadFormat.release(payload);
+                        }
+                    });
+            //If it is a blocking call, wait for the ack
+            if ( blocking ) {
                 try {
-                    //There is no need for sleep for blocking calls.
-                    if ( !blocking ) {
-                        if ( timeSpent < 1000) {
-                            Thread.sleep((1000 - timeSpent) / 1000 );
+                    retFuture.get();
+                } catch (InterruptedException  | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+            return retFuture;
+        }
+
+        @Override
+        public void run() {
+            runLoop(sendFunction());
+        }
+    }
+
+
+    /**
+     * Drives a share of the simulated sensors from a single thread. Every sensor is a timeout on this driver's timer
+     * wheel; when it fires, the sensor emits all its events due by then through its writer, several of them if the
+     * sensor's rate is above the wheel's tick rate, and is rescheduled for its next event. Latency is measured from
+     * the intended send time in open-loop mode and from the actual send time otherwise. The driver never blocks on a
+     * full in-flight window, which would hold up all its other sensors; the event is skipped and counted instead.
+     */
+    private static class SensorDriver implements Runnable {
+
+        private final List<ScheduledSensor> sensors = new ArrayList<>();
+        private final long intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / eventsPerSec);
+        private int active;
+
+        void add(TemperatureSensor sensor, EventStreamWriter<Object> writer, InFlightWindow inFlight) {
+            sensors.add(new ScheduledSensor(sensor, writer, inFlight, eventsToSend(runtimeSec, eventsPerSec)));
+        }
+
+        @Override
+        public void run() {
+            TimerWheel<ScheduledSensor> wheel = new TimerWheel<>(benchmarkStartNanos, DRIVER_TICK_NANOS,
+                    DRIVER_WHEEL_SIZE);
+            for (ScheduledSensor sensor : sensors) {
+                // Spread the first events of all the sensors evenly over one interval.
+                long phase = intervalNanos * sensor.sensor.getSensorId() / sensorCount;
+                wheel.schedule(new TimerWheel.Timeout<>(sensor), benchmarkStartNanos + phase);
+            }
+            active = sensors.size();
+            try {
+                while (active > 0 && !stopRequested) {
+                    wheel.awaitTick();
+                    wheel.expireTick(timeout -> fire(wheel, timeout));
+                }
+            } catch (InterruptedException e) {
+                // log exception
+                System.exit(1);
+            }
+        }
+
+        private void fire(TimerWheel<ScheduledSensor> wheel, TimerWheel.Timeout<ScheduledSensor> timeout) {
+            ScheduledSensor scheduled = timeout.item;
+            long deadline = timeout.getDeadline();
+            long now = System.nanoTime();
+            do {
+                send(scheduled, deadline);
+                deadline += intervalNanos;
+            } while (--scheduled.remaining > 0 && deadline - now <= 0 && !stopRequested);
+
+            if (scheduled.remaining > 0) {
+                wheel.schedule(timeout, deadline);
+            } else {
+                active--;
+            }
+        }
+
+        /**
+         * Sends the sensor's event intended for the given time, unless its writer's in-flight window is full.
+         */
+        private void send(ScheduledSensor scheduled, long intendedNanos) {
+            if ( !scheduled.inFlight.tryAcquire() ) {
+                skippedEvents.increment();
+                return;
+            }
+            long startNanos = openLoop ? intendedNanos : System.nanoTime();
+            int keyIndex = routingKeys.nextKeyIndex();
+            Object payload = nextPayload(scheduled.sensor, keyIndex, startNanos);
+            String routingKey = routingKeys.key(keyIndex, scheduled.routingKey);
+            int size = payloadFormat.sizeOf(payload);
+            produceStats.runAndRecordTime(() -> write(() -> scheduled.writer.writeEvent(routingKey, payload)),
+                    startNanos,
+                    size)
+                    .whenComplete((v, e) -> {
+                        scheduled.inFlight.release();
+                        if ( produceStreamStats != null && e == null ) {
+                            produceStreamStats.record(fanOut.streamOf(scheduled.sensor.getSensorId()),
+                                    System.nanoTime() - startNanos, size);
                         }
+                        payloadFormat.release(payload);
+                    });
+        }
+    }
+
+    /**
+     * A record of a trace, due to be written at the given time.
+     */
+    private static class TraceRecord {
+        // Tells a replayer that the trace is over.
+        static final TraceRecord END = new TraceRecord(0, null, null);
+
+        final long intendedNanos;
+        final String key;
+        final ByteBuffer payload;
+
+        TraceRecord(long intendedNanos, String key, ByteBuffer payload) {
+            this.intendedNanos = intendedNanos;
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Reads the trace once and hands every record to the replayer its key belongs to, so that events with the same
+     * key are written in trace order by one producer. Records are handed over as views of the mapped file, and each
+     * replayer's queue keeps the scan at most TRACE_QUEUE_SIZE records ahead of it.
+     */
+    private static class TraceScanner implements Runnable {
+
+        private final List<BlockingQueue<TraceRecord>> queues;
+
+        TraceScanner(List<BlockingQueue<TraceRecord>> queues) {
+            this.queues = queues;
+        }
+
+        @Override
+        public void run() {
+            long endNanos = benchmarkStartNanos + TimeUnit.SECONDS.toNanos(runtimeSec);
+            try (TraceFile trace = new TraceFile(Paths.get(traceFile))) {
+                long firstMicros = -1;
+                while (trace.next() && !stopRequested) {
+                    if ( firstMicros < 0 ) {
+                        firstMicros = trace.getTimestampMicros();
+                    }
+                    long intended = benchmarkStartNanos;
+                    if ( traceSpeed > 0 ) {
+                        intended += (long) ((trace.getTimestampMicros() - firstMicros) * 1000 / traceSpeed);
+                    }
+                    if ( runtimeSec > 0 && intended - endNanos >= 0 ) {
+                        break;
+                    }
+                    BlockingQueue<TraceRecord> queue = queues.get(Math.floorMod(trace.keyHash(), queues.size()));
+                    if ( !hand(queue, new TraceRecord(intended, trace.getKey(), trace.getPayload())) ) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (BlockingQueue<TraceRecord> queue : queues) {
+                try {
+                    if ( !hand(queue, TraceRecord.END) ) {
+                        return;
                     }
                 } catch (InterruptedException e) {
-                    // log exception
-                    System.exit(1);
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
-            producer.close();
+        }
+
+        /**
+         * Waits for room in the queue, unless the run is stopped, in which case the replayers stop by themselves.
+         */
+        private boolean hand(BlockingQueue<TraceRecord> queue, TraceRecord record) throws InterruptedException {
+            while (!queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                if ( stopRequested ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the trace records a {@link TraceScanner} hands it with their recorded keys and payloads, each at the time
+     * it is due, so the recorded spacing is replayed. In open-loop mode latency is measured from the time each record
+     * is due, otherwise from the actual send time. Payloads are written straight from the mapped file.
+     */
+    private static class TraceReplayer implements Runnable {
+
+        private final BlockingQueue<TraceRecord> queue = new ArrayBlockingQueue<>(TRACE_QUEUE_SIZE);
+        private final EventStreamWriter<ByteBuffer> writer;
+        private final InFlightWindow inFlight;
+
+        TraceReplayer() {
+            Serializer<ByteBuffer> serializer = new BinaryPayloadFormat.SensorRecordSerializer();
+            // A trace is replayed into the first stream of the fan-out only.
+            this.writer = createWriter(0, stages != null ? stages.timed(serializer) : serializer);
+            this.inFlight = new InFlightWindow(maxOutstanding);
+            produceStats.track(inFlight);
+        }
+
+        @Override
+        public void run() {
+            Future<Void> retFuture = null;
+            try {
+                while (!stopRequested) {
+                    TraceRecord record = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if ( record == null ) {
+                        continue;
+                    }
+                    if ( record == TraceRecord.END ) {
+                        break;
+                    }
+                    EventPacer.awaitNanoTime(record.intendedNanos);
+                    long startNanos = openLoop ? record.intendedNanos : System.nanoTime();
+                    int length = record.payload.remaining();
+                    inFlight.acquire();
+                    retFuture = produceStats.runAndRecordTime(
+                            () -> write(() -> writer.writeEvent(record.key, record.payload)), startNanos, length)
+                            .whenComplete((v, e) -> inFlight.release());
+                    if ( blocking ) {
+                        retFuture.get();
+                    }
+                }
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                // log exception
+                System.exit(1);
+            }
+            writer.close();
             try {
                 //Wait for the last packet to get acked
-                retFuture.get();
+                if ( retFuture != null ) {
+                    retFuture.get();
+                }
             } catch (InterruptedException | ExecutionException e ) {
                 e.printStackTrace();
             }
         }
+    }
 
-        @Override
-        public void run() {
-            runLoop(sendFunction());
+    private static class ScheduledSensor {
+        private final TemperatureSensor sensor;
+        private final String routingKey;
+        private final EventStreamWriter<Object> writer;
+        private final InFlightWindow inFlight;
+        private long remaining;
+
+        ScheduledSensor(TemperatureSensor sensor, EventStreamWriter<Object> writer, InFlightWindow inFlight,
+                        long events) {
+            this.sensor = sensor;
+            this.routingKey = Integer.toString(sensor.getSensorId());
+            this.writer = writer;
+            this.inFlight = inFlight;
+            this.remaining = events;
         }
     }
 
-
+    /**
+     * Writes sensor events into transactions of txnEvents events each, committing a transaction once it is full or,
+     * when txnCommitMs is set, once it has been open that long. Commits run in the background so that new events keep
+     * flowing into the next transaction meanwhile; at most txnPipeline transactions per producer can be committing at
+     * any time. Each commit is timed from the moment it starts until the transaction is reported as committed, and
+     * recorded separately from the write latency.
+     */
     private static class TransactionTemperatureSensors extends TemperatureSensors {
 
-        private final Transaction<String> transaction;
+        private final Semaphore pendingCommits = new Semaphore(txnPipeline);
+        private Transaction<Object> transaction;
+        private List<Object> payloads = new ArrayList<>();
+        private int transactionBytes;
+        private long transactionStartNanos;
 
         TransactionTemperatureSensors(TemperatureSensor sensor, int eventsPerSec, int secondsToRun, boolean
-                isTransaction, ClientFactory factory) {
-            super(sensor, eventsPerSec, secondsToRun, isTransaction, factory);
-            transaction = producer.beginTxn();
+                isTransaction) {
+            super(sensor, eventsPerSec, secondsToRun, isTransaction);
         }
 
-        BiFunction<String, String, Future> sendFunction() {
+        BiFunction<String, Object, CompletableFuture<Void>> sendFunction() {
             return  ( key, data) -> {
                 try {
+                    if ( transaction == null ) {
+                        transaction = producer.beginTxn();
+                        transactionStartNanos = System.nanoTime();
+                    }
                     transaction.writeEvent(key, data);
+                    payloads.add(data);
+                    transactionBytes += payloadFormat.sizeOf(data);
+                    if ( payloads.size() >= txnEvents || (txnCommitMs > 0 &&
+                            System.nanoTime() - transactionStartNanos >= TimeUnit.MILLISECONDS.toNanos(txnCommitMs)) ) {
+                        commitAsync();
+                    }
                 } catch (TxnFailedException e) {
                     System.out.println("Publish to transaction failed");
                     e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
                 return CompletableFuture.completedFuture(null);
             };
         }
+
+        /**
+         * Hands the current transaction over to the commit executor, waiting first if txnPipeline commits are already
+         * in progress.
+         */
+        private void commitAsync() throws InterruptedException {
+            final Transaction<Object> committing = transaction;
+            final List<Object> committedPayloads = payloads;
+            final int bytes = transactionBytes;
+            transaction = null;
+            payloads = new ArrayList<>(txnEvents);
+            transactionBytes = 0;
+
+            pendingCommits.acquire();
+            commitExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    committing.commit();
+                    while (committing.checkStatus() == Transaction.Status.COMMITTING) {
+                        Thread.sleep(TXN_STATUS_POLL_MS);
+                    }
+                    commitStats.record(System.nanoTime() - start, bytes);
+                    committedPayloads.forEach(payloadFormat::release);
+                } catch (TxnFailedException e) {
+                    System.out.println("Commit of transaction " + committing.getTxnId() + " failed");
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    pendingCommits.release();
+                }
+            });
+        }
+
+        @Override
+        void finish() throws InterruptedException {
+            if ( transaction != null ) {
+                commitAsync();
+            }
+            // Wait for all the commits in flight to complete.
+            pendingCommits.acquire(txnPipeline);
+            pendingCommits.release(txnPipeline);
+        }
     }
 
     /**
-     * A Sensor reader class that reads the temperative data
+     * A Sensor reader class that reads the temperative data. Several of them can share a reader group, each running
+     * on its own thread, and together they stop once the expected number of events has been read or once the
+     * producers are done and nothing more arrives. Latency is measured end to end, from the send time carried by
+     * every event until it is read.
      */
     private static class SensorReader implements Runnable {
 
-        private final JavaSerializer<String> SERIALIZER = new JavaSerializer<>();
-        final EventStreamReader<String> reader;
-        private int totalEvents;
+        private static final int READER_TIMEOUT_MS = 1000;
+
+        final EventStreamReader<Object> reader;
+        private final String readerName;
+        private final AtomicLong remainingEvents;
+        private long eventsRead;
+        private long staleEvents;
 
-        public SensorReader(int totalEvents, ClientFactory clientFactory) {
-        	this.totalEvents = totalEvents;
-        	reader = createReader(clientFactory);
+        public SensorReader(String readerName, String readerGroup, AtomicLong remainingEvents,
+                            ClientFactory clientFactory) {
+            this.readerName = readerName;
+            this.remainingEvents = remainingEvents;
+            ReaderConfig readerConfig = ReaderConfig.builder().build();
+            this.reader = clientFactory.createReader(readerName, readerGroup, payloadFormat.getSerializer(),
+                    readerConfig);
         }
 
         @Override
         public void run() {
             try {
-                do {
+                while (remainingEvents.get() > 0) {
                     try {
-                        final EventRead<String> result = reader.readNextEvent(0);
-                        if (result.getEvent() != null) {
-                            consumeStats.runAndRecordTime(() -> {
-                                return CompletableFuture.completedFuture(null);
-                            }, Long.parseLong(result.getEvent().split(",")[0]), 100);
-                            totalEvents--;
+                        final EventRead<Object> result = reader.readNextEvent(READER_TIMEOUT_MS);
+                        final Object event = result.getEvent();
+                        if (event != null) {
+                            long sendTime = payloadFormat.decodeSendTime(event);
+                            if ( sendTime < runStartNanos ) {
+                                // Left in the stream by an earlier run; neither measured nor counted.
+                                staleEvents++;
+                                continue;
+                            }
+                            if ( catchupStats != null && sendTime < backlogEndNanos ) {
+                                catchupStats.record(EpochClock.nowNanos() - sendTime, payloadFormat.sizeOf(event));
+                                if ( sendTime >= backlogStartNanos && backlogRemaining.decrementAndGet() == 0 ) {
+                                    caughtUp();
+                                }
+                            } else {
+                                consumeStats.record(EpochClock.nowNanos() - sendTime, payloadFormat.sizeOf(event));
+                            }
+                            if ( consumeStreamStats != null ) {
+                                consumeStreamStats.record(fanOut.streamOf(payloadFormat.decodeSensorId(event)),
+                                        EpochClock.nowNanos() - sendTime, payloadFormat.sizeOf(event));
+                            }
+                            if ( sequenceVerifier != null ) {
+                                sequenceVerifier.record(payloadFormat.decodeSensorId(event) * routingKeys.keyCount() +
+                                        payloadFormat.decodeKeyIndex(event), payloadFormat.decodeSequence(event));
+                            }
+                            remainingEvents.decrementAndGet();
+                            eventsRead++;
+                        } else if (producersDone && !result.isCheckpoint()) {
+                            break;
                         }
                     } catch (ReinitializationRequiredException e) {
                         e.printStackTrace();
                     }
-                } while (totalEvents > 0);
+                }
             }
             finally {
                 reader.close();
+                System.out.println(readerName + " read " + eventsRead + " events" + (staleEvents > 0 ?
+                        ", skipping " + staleEvents + " events left in the stream by earlier runs" : ""));
             }
         }
 
-        public EventStreamReader<String> createReader(ClientFactory clientFactory) {
-            String readerName = "Reader";
-
+        /**
+         * Creates readerCount readers in a new reader group, sharing the given count of events still to be read.
+         */
+        public static List<SensorReader> createReaders(int readerCount, AtomicLong remainingEvents,
+                                                       ClientFactory clientFactory) {
             //reusing a reader group name doesn't work (probably because the sequence is already consumed)
             //until we figure out how to manage this, use a random reader group name
             String readerGroup = UUID.randomUUID().toString().replace("-", "");
-            ReaderGroupConfig groupConfig = ReaderGroupConfig.builder()
-                    .stream(Stream.of(scopeName, streamName))
-                    .build();
+            ReaderGroupConfig.ReaderGroupConfigBuilder builder = ReaderGroupConfig.builder();
+            for (int i = 0; i < fanOut.getStreamCount(); i++) {
+                builder.stream(Stream.of(fanOut.getScope(fanOut.getScopeIndex(i)), fanOut.getStream(i)));
+            }
+            ReaderGroupConfig groupConfig = builder.build();
             readerGroupManager.createReaderGroup(readerGroup, groupConfig);
-            ReaderConfig readerConfig = ReaderConfig.builder().build();
-            return clientFactory.createReader(readerName, readerGroup, SERIALIZER, readerConfig);
+
+            List<SensorReader> readers = new ArrayList<>();
+            for (int i = 0; i < readerCount; i++) {
+                readers.add(new SensorReader("Reader-" + i, readerGroup, remainingEvents, clientFactory));
+            }
+            return readers;
         }
     }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads events uniformly at random over a fixed number of keys.
+ */
+class UniformRoutingKeys implements RoutingKeyGenerator {
+    private final String[] keys;
+
+    UniformRoutingKeys(int keyCount) {
+        this.keys = RoutingKeyGenerator.keys(keyCount);
+    }
+
+    @Override
+    public int keyCount() {
+        return keys.length;
+    }
+
+    @Override
+    public String key(int index, String sensorKey) {
+        return keys[index];
+    }
+
+    @Override
+    public int nextKeyIndex() {
+        return ThreadLocalRandom.current().nextInt(keys.length);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides, one reporting window at a time, when the warm-up of a run is over. Warm-up lasts at least the configured
+ * duration and number of events and, if steady-state detection is enabled, until the throughput of the last few
+ * windows agrees within a tolerance. A detector with none of these set ends warm-up immediately.
+ */
+class WarmupDetector {
+    private final long minNanos;
+    private final long minEvents;
+    private final double tolerance;
+    private final double[] rates;
+    private long events;
+    private int windows;
+    private boolean done;
+
+    /**
+     * Creates a new detector.
+     *
+     * @param minDurationMs  The minimum duration of warm-up, 0 for none.
+     * @param minEvents      The minimum number of events recorded during warm-up, 0 for none.
+     * @param tolerance      The relative deviation from their mean within which the throughput of the last
+     *                       steadyWindows windows must lie, e.g. 0.05, or 0 to disable steady-state detection.
+     * @param steadyWindows  How many consecutive windows must be steady.
+     */
+    WarmupDetector(long minDurationMs, long minEvents, double tolerance, int steadyWindows) {
+        this.minNanos = TimeUnit.MILLISECONDS.toNanos(minDurationMs);
+        this.minEvents = minEvents;
+        this.tolerance = tolerance;
+        this.rates = new double[Math.max(2, steadyWindows)];
+        this.done = minDurationMs <= 0 && minEvents <= 0 && tolerance <= 0;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Accounts for one more window and returns whether warm-up is over once it is included.
+     *
+     * @param elapsedNanos The time since the start of the run, at the end of the window.
+     * @param windowEvents The number of events recorded in the window.
+     * @param windowRate   The window's throughput, in events per second.
+     */
+    boolean windowDone(long elapsedNanos, long windowEvents, double windowRate) {
+        if (done) {
+            return true;
+        }
+        events += windowEvents;
+        rates[windows++ % rates.length] = windowRate;
+        done = elapsedNanos >= minNanos && events >= minEvents && (tolerance <= 0 || isSteady());
+        return done;
+    }
+
+    private boolean isSteady() {
+        if (windows < rates.length) {
+            return false;
+        }
+        double mean = 0;
+        for (double rate : rates) {
+            mean += rate / rates.length;
+        }
+        for (double rate : rates) {
+            if (mean <= 0 || Math.abs(rate - mean) > tolerance * mean) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Dell Inc., or its subsidiaries. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ */
+package io.pravega.turbineheatsensor;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks keys from a Zipf distribution: the k-th most popular of n keys is chosen with a probability proportional to
+ * 1 / k^skew, so a handful of keys receive most of the events, as with a few large tenants among many small ones.
+ * A skew of 0 is uniform; around 1 is typical of real workloads, and higher values concentrate the load further.
+ */
+class ZipfRoutingKeys implements RoutingKeyGenerator {
+    private final String[] keys;
+    // cumulative[k] is the probability of picking one of the keys 0..k.
+    private final double[] cumulative;
+
+    ZipfRoutingKeys(int keyCount, double skew) {
+        this.keys = RoutingKeyGenerator.keys(keyCount);
+        this.cumulative = cumulative(keyCount, skew);
+    }
+
+    /**
+     * Returns the cumulative Zipf distribution over n items: element k is the probability of picking one of the
+     * items 0..k.
+     */
+    static double[] cumulative(int n, double skew) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Returns the item of the given cumulative distribution that the given value in the range [0, 1) falls on.
+     */
+    static int pick(double[] cumulative, double value) {
+        int index = Arrays.binarySearch(cumulative, value);
+        // A miss returns -(insertion point) - 1, the insertion point being the first item whose bound is higher.
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    @Override
+    public int keyCount() {
+        return keys.length;
+    }
+
+    @Override
+    public String key(int index, String sensorKey) {
+        return keys[index];
+    }
+
+    @Override
+    public int nextKeyIndex() {
+        return pick(cumulative, ThreadLocalRandom.current().nextDouble());
+    }
+}